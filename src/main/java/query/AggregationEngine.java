@@ -0,0 +1,367 @@
+package query;
+
+import io.vavr.collection.List;
+import query.ColumnStore.IntStore;
+import query.ColumnStore.StrStore;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Group-by for {@link InMemoryRepo}, partitioned across a
+ * {@link ForkJoinPool}. Each partition of {@link #PARTITION_SIZE} tuples
+ * fills a hash table of its own, keyed by a {@code long} encoding of the
+ * group key, with one primitive accumulator array per aggregation; sibling
+ * tables are merged pairwise as the tasks join. Str values are aggregated
+ * as their rank in sorted dictionary order, and AVG stays a sum and a count
+ * until the final table is written. Groups come out in order of first
+ * appearance, as they would from a single pass.
+ */
+final class AggregationEngine {
+    static final int PARTITION_SIZE = 1 << 14;
+
+    private static final long NULL_KEY = Long.MIN_VALUE;
+
+    private AggregationEngine() {}
+
+    @FunctionalInterface
+    private interface GroupKey {
+        long of(int tuple);
+    }
+
+    /** Column holding a select term once the query has been grouped. */
+    static Attr column(SelectTerm term) {
+        return switch (term) {
+            case AttrSelectTerm at -> at.attr();
+            case Aggregation a -> new Attr(
+                    ColumnarResult.columnType(a),
+                    a.at().name().toLowerCase() + "_" + a.t().attr().name());
+        };
+    }
+
+    /**
+     * One row per group: the group-by attributes, then every aggregation
+     * of the select list or the having clause as a column named after it.
+     * Without group-by, all tuples form a single group, even when empty.
+     */
+    static MemoryTable aggregate(Query q, Frame f, ForkJoinPool pool) {
+        List<Aggregation> aggregations = q.select()
+                .appendAll(q.having()
+                        .flatMap(QueryOptimizer::attrs)
+                        .map(a -> Having.resolve(q, a)))
+                .filter(s -> s instanceof Aggregation)
+                .map(s -> (Aggregation) s)
+                .distinct();
+        List<Frame.Slot> keys = q.groupBy().map(f::slot);
+        Input[] inputs = aggregations
+                .map(a -> new Input(a.at(), f, f.slot(a.t().attr())))
+                .toJavaArray(Input[]::new);
+
+        GroupKey key = groupKey(f, keys);
+        Groups groups = f.size() <= PARTITION_SIZE
+                ? new Partition(f, key, inputs, 0, f.size()).compute()
+                : pool.invoke(new Partition(f, key, inputs, 0, f.size()));
+        if (groups.size == 0 && keys.isEmpty())
+            groups.group(0, -1);
+
+        MemoryTable table = new MemoryTable(new EntityType(
+                "groups",
+                q.groupBy().appendAll(aggregations.map(AggregationEngine::column))));
+        for (int g = 0; g < groups.size; g++) {
+            int first = groups.first[g];
+            int group = g;
+            table.append(keys
+                    .map(slot -> f.get(slot, first))
+                    .appendAll(List.range(0, inputs.length)
+                            .map(a -> inputs[a].result(groups, a, group))));
+        }
+        return table;
+    }
+
+    /**
+     * Single keys are their Int value or Str code; compound keys are mixed
+     * radix numbers of per-column codes when they fit in a {@code long},
+     * and dense ids interned up front otherwise.
+     */
+    private static GroupKey groupKey(Frame f, List<Frame.Slot> keys) {
+        if (keys.isEmpty())
+            return tuple -> 0;
+        if (keys.size() == 1) {
+            Frame.Slot slot = keys.head();
+            int[] rows = f.rows(slot.source());
+            return switch (slot.column()) {
+                case IntStore ints -> tuple -> ints.isNull(rows[tuple])
+                        ? NULL_KEY
+                        : ints.values()[rows[tuple]];
+                case StrStore strs -> tuple -> strs.codes()[rows[tuple]];
+            };
+        }
+
+        int n = keys.size();
+        int[][] rows = new int[n][];
+        ColumnStore[] columns = new ColumnStore[n];
+        long[] offsets = new long[n];
+        long[] multipliers = new long[n];
+        long multiplier = 1;
+        boolean fits = true;
+        for (int c = 0; c < n; c++) {
+            Frame.Slot slot = keys.get(c);
+            rows[c] = f.rows(slot.source());
+            columns[c] = slot.column();
+            long radix;
+            if (slot.column() instanceof IntStore ints) {
+                long min = Long.MAX_VALUE;
+                long max = Long.MIN_VALUE;
+                for (int i = 0; i < f.size(); i++) {
+                    if (ints.isNull(rows[c][i]))
+                        continue;
+                    min = Math.min(min, ints.values()[rows[c][i]]);
+                    max = Math.max(max, ints.values()[rows[c][i]]);
+                }
+                offsets[c] = min == Long.MAX_VALUE ? 0 : min;
+                radix = min == Long.MAX_VALUE ? 1 : max - min + 2;
+            } else {
+                radix = ((StrStore) slot.column()).dictionarySize() + 1L;
+            }
+            multipliers[c] = multiplier;
+            if (multiplier > Long.MAX_VALUE / radix)
+                fits = false;
+            else
+                multiplier *= radix;
+        }
+
+        GroupKey radixKey = tuple -> {
+            long key = 0;
+            for (int c = 0; c < n; c++) {
+                int row = rows[c][tuple];
+                long code = switch (columns[c]) {
+                    case IntStore ints -> ints.isNull(row) ? 0 : ints.values()[row] - offsets[c] + 1;
+                    case StrStore strs -> strs.codes()[row] + 1;
+                };
+                key += code * multipliers[c];
+            }
+            return key;
+        };
+        if (fits)
+            return radixKey;
+
+        Map<java.util.List<Object>, Long> ids = new HashMap<>();
+        long[] interned = new long[f.size()];
+        for (int i = 0; i < interned.length; i++) {
+            int tuple = i;
+            interned[i] = ids.computeIfAbsent(
+                    keys.map(slot -> f.get(slot, tuple)).asJava(),
+                    k -> (long) ids.size());
+        }
+        return tuple -> interned[tuple];
+    }
+
+    /**
+     * Values read by one aggregation: Int values as they are, Str values
+     * as ranks in sorted dictionary order.
+     */
+    private static final class Input {
+        final AggrType type;
+        final int[] rows;
+        final ColumnStore column;
+        final int[] values;
+        final int[] rankOfCode;
+        final String[] byRank;
+
+        Input(AggrType type, Frame f, Frame.Slot slot) {
+            this.type = type;
+            this.rows = f.rows(slot.source());
+            this.column = slot.column();
+            if (slot.column() instanceof StrStore strs) {
+                if (type == AggrType.SUM || type == AggrType.AVG)
+                    throw new IllegalArgumentException(type + " over a Str attribute");
+                values = strs.codes();
+                byRank = new String[strs.dictionarySize()];
+                for (int code = 0; code < byRank.length; code++)
+                    byRank[code] = strs.decode(code);
+                Arrays.sort(byRank);
+                rankOfCode = new int[byRank.length];
+                for (int code = 0; code < byRank.length; code++)
+                    rankOfCode[code] = Arrays.binarySearch(byRank, strs.decode(code));
+            } else {
+                values = ((IntStore) slot.column()).values();
+                rankOfCode = null;
+                byRank = null;
+            }
+        }
+
+        long initial() {
+            return switch (type) {
+                case MIN -> Long.MAX_VALUE;
+                case MAX -> Long.MIN_VALUE;
+                default -> 0;
+            };
+        }
+
+        void add(Groups groups, int a, int group, int tuple) {
+            int row = rows[tuple];
+            if (column.isNull(row))
+                return;
+            groups.counts[a][group]++;
+            if (type == AggrType.COUNT)
+                return;
+            long v = rankOfCode == null ? values[row] : rankOfCode[values[row]];
+            long[] acc = groups.accs[a];
+            switch (type) {
+                case SUM, AVG -> acc[group] += v;
+                case MIN -> acc[group] = Math.min(acc[group], v);
+                case MAX -> acc[group] = Math.max(acc[group], v);
+                default -> {}
+            }
+        }
+
+        void merge(long[] acc, long[] counts, int to, long otherAcc, long otherCount) {
+            counts[to] += otherCount;
+            switch (type) {
+                case SUM, AVG -> acc[to] += otherAcc;
+                case MIN -> acc[to] = Math.min(acc[to], otherAcc);
+                case MAX -> acc[to] = Math.max(acc[to], otherAcc);
+                case COUNT -> {}
+            }
+        }
+
+        Object result(Groups groups, int a, int group) {
+            long count = groups.counts[a][group];
+            long acc = groups.accs[a][group];
+            if (type == AggrType.COUNT)
+                return (int) count;
+            if (count == 0)
+                return null;
+            return switch (type) {
+                case SUM -> (int) acc;
+                case AVG -> (int) (acc / count);
+                default -> byRank == null ? (Object) (int) acc : byRank[(int) acc];
+            };
+        }
+    }
+
+    /**
+     * Open-addressing table from group keys to dense group numbers, with
+     * the first tuple of every group and one accumulator and one non-null
+     * count per aggregation and group.
+     */
+    private static final class Groups {
+        private final Input[] inputs;
+        private long[] slotKeys = new long[16];
+        private int[] slotGroups = new int[16];
+        private long[] keys = new long[16];
+        private int[] first = new int[16];
+        private final long[][] accs;
+        private final long[][] counts;
+        private int size;
+
+        Groups(Input[] inputs) {
+            this.inputs = inputs;
+            this.accs = new long[inputs.length][16];
+            this.counts = new long[inputs.length][16];
+            Arrays.fill(slotGroups, -1);
+            for (int a = 0; a < inputs.length; a++)
+                Arrays.fill(accs[a], inputs[a].initial());
+        }
+
+        int group(long key, int tuple) {
+            int mask = slotKeys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while (slotGroups[slot] >= 0) {
+                if (slotKeys[slot] == key)
+                    return slotGroups[slot];
+                slot = (slot + 1) & mask;
+            }
+            if (size == keys.length)
+                growGroups();
+            keys[size] = key;
+            first[size] = tuple;
+            slotKeys[slot] = key;
+            slotGroups[slot] = size;
+            if (++size * 2 > slotKeys.length)
+                rehash();
+            return size - 1;
+        }
+
+        void merge(Groups other) {
+            for (int g = 0; g < other.size; g++) {
+                int to = group(other.keys[g], other.first[g]);
+                for (int a = 0; a < inputs.length; a++)
+                    inputs[a].merge(accs[a], counts[a], to, other.accs[a][g], other.counts[a][g]);
+            }
+        }
+
+        private void growGroups() {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            first = Arrays.copyOf(first, capacity);
+            for (int a = 0; a < inputs.length; a++) {
+                int old = accs[a].length;
+                accs[a] = Arrays.copyOf(accs[a], capacity);
+                Arrays.fill(accs[a], old, capacity, inputs[a].initial());
+                counts[a] = Arrays.copyOf(counts[a], capacity);
+            }
+        }
+
+        private void rehash() {
+            slotKeys = new long[slotKeys.length * 2];
+            slotGroups = new int[slotKeys.length];
+            Arrays.fill(slotGroups, -1);
+            int mask = slotKeys.length - 1;
+            for (int g = 0; g < size; g++) {
+                int slot = (int) mix(keys[g]) & mask;
+                while (slotGroups[slot] >= 0)
+                    slot = (slot + 1) & mask;
+                slotKeys[slot] = keys[g];
+                slotGroups[slot] = g;
+            }
+        }
+
+        private static long mix(long key) {
+            key *= 0x9E3779B97F4A7C15L;
+            return key ^ (key >>> 32);
+        }
+    }
+
+    private static final class Partition
+            extends RecursiveTask<Groups> {
+        private static final long serialVersionUID = 1L;
+
+        private final Frame f;
+        private final GroupKey key;
+        private final Input[] inputs;
+        private final int from;
+        private final int to;
+
+        Partition(Frame f, GroupKey key, Input[] inputs, int from, int to) {
+            this.f = f;
+            this.key = key;
+            this.inputs = inputs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Groups compute() {
+            if (to - from <= PARTITION_SIZE) {
+                Groups groups = new Groups(inputs);
+                for (int tuple = from; tuple < to; tuple++) {
+                    int g = groups.group(key.of(tuple), tuple);
+                    for (int a = 0; a < inputs.length; a++)
+                        inputs[a].add(groups, a, g, tuple);
+                }
+                return groups;
+            }
+            int mid = (from + to) >>> 1;
+            Partition left = new Partition(f, key, inputs, from, mid);
+            left.fork();
+            Groups right = new Partition(f, key, inputs, mid, to).compute();
+            Groups merged = left.join();
+            merged.merge(right);
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package query;
+
+import io.vavr.CheckedFunction0;
+import io.vavr.collection.List;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Non-blocking front for a {@link Repository}: every call returns at once
+ * with a future completed on {@code executor}. At most
+ * {@code maxConcurrency} calls run at a time; the rest wait in a queue
+ * without holding a thread. Cancelling a future that is still queued drops
+ * the call, cancelling a running one cancels the JDBC statement or closes
+ * the Mongo cursor it is waiting on and interrupts its thread.
+ */
+public class AsyncRepository
+        implements AutoCloseable {
+    private final Repository repo;
+    private final Executor executor;
+    private final ExecutorService owned;
+    private final int maxConcurrency;
+    private final Deque<Task<?>> queued = new ArrayDeque<>();
+    private int running;
+
+    public AsyncRepository(Repository repo, int maxConcurrency) {
+        this(repo, Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "async-repository");
+            t.setDaemon(true);
+            return t;
+        }), maxConcurrency, true);
+    }
+
+    public AsyncRepository(Repository repo, Executor executor, int maxConcurrency) {
+        this(repo, executor, maxConcurrency, false);
+    }
+
+    private AsyncRepository(
+            Repository repo,
+            Executor executor,
+            int maxConcurrency,
+            boolean owned
+    ) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        this.repo = repo;
+        this.executor = executor;
+        this.owned = owned ? (ExecutorService) executor : null;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public CompletableFuture<Void> init(EntityType... types) {
+        return submit(() -> {
+            repo.init(types);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> addEntities(Entity... es) {
+        return submit(() -> {
+            repo.addEntities(es);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<List<Object>>> select(Query q) {
+        return submit(() -> repo.select(q).get());
+    }
+
+    /**
+     * Calls waiting for one of the {@code maxConcurrency} slots.
+     */
+    public int queued() {
+        synchronized (queued) {
+            return queued.size();
+        }
+    }
+
+    /**
+     * Shuts down the executor created by {@link #AsyncRepository(Repository, int)};
+     * a caller-supplied executor is left alone.
+     */
+    @Override
+    public void close() {
+        if (owned != null)
+            owned.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> submit(CheckedFunction0<T> call) {
+        Task<T> task = new Task<>(call);
+        synchronized (queued) {
+            if (running == maxConcurrency) {
+                queued.addLast(task);
+                return task;
+            }
+            running++;
+        }
+        dispatch(task);
+        return task;
+    }
+
+    private void dispatch(Task<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.completeExceptionally(e);
+            finished();
+        }
+    }
+
+    private void finished() {
+        Task<?> next;
+        synchronized (queued) {
+            next = queued.pollFirst();
+            if (next == null) {
+                running--;
+                return;
+            }
+        }
+        dispatch(next);
+    }
+
+    private class Task<T>
+            extends CompletableFuture<T>
+            implements Runnable {
+        private final CheckedFunction0<T> call;
+        private final Cancellation cancellation = new Cancellation();
+        private Thread runner;
+
+        Task(CheckedFunction0<T> call) {
+            this.call = call;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (isDone())
+                    return;
+                synchronized (this) {
+                    runner = Thread.currentThread();
+                }
+                cancellation.enter();
+                try {
+                    T result = call.apply();
+                    cancellation.close();
+                    complete(result);
+                } catch (Throwable e) {
+                    cancellation.close();
+                    completeExceptionally(e);
+                } finally {
+                    synchronized (this) {
+                        runner = null;
+                    }
+                    Thread.interrupted();
+                }
+            } finally {
+                finished();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (!cancelled)
+                return false;
+            synchronized (queued) {
+                if (queued.remove(this))
+                    return true;
+            }
+            cancellation.cancel();
+            synchronized (this) {
+                if (mayInterruptIfRunning && runner != null)
+                    runner.interrupt();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,3 @@
+package query;
+
+public record CacheStats(long hits, long misses, long evictions) {}
@@ -0,0 +1,158 @@
+package query;
+
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.time.Duration;
+import java.util.stream.Stream;
+
+/**
+ * Repository decorator caching the rows of each {@link Query}, keyed on the
+ * query value itself. Entries are dropped when the cache is over
+ * {@code capacity} (least recently used first), once they are older than
+ * {@code ttl}, and whenever {@link #init} or {@link #addEntities} touches
+ * one of the entity types they were read from. Dropped entries of all
+ * three kinds count as evictions in {@link #stats()}. Streams and columnar
+ * results are served from the cache when it holds the query, and are
+ * otherwise read from the underlying repository without being cached;
+ * {@link #selectAll} sends all its misses there in one call.
+ */
+public class CachingRepo
+        implements Repository {
+    private record Entry(
+            List<List<Object>> rows,
+            Set<EntityType> types,
+            long expiresAt
+    ) {}
+
+    private final Repository repo;
+    private final Duration ttl;
+    private final LruCache<Query, Entry> cache;
+    private long version;
+
+    public CachingRepo(Repository repo, int capacity, Duration ttl) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (ttl.isNegative())
+            throw new IllegalArgumentException("ttl must not be negative");
+        this.repo = repo;
+        this.ttl = ttl;
+        this.cache = new LruCache<>(capacity);
+    }
+
+    @Override
+    public void init(EntityType... types) {
+        repo.init(types);
+        invalidate(HashSet.of(types));
+    }
+
+    @Override
+    public void addEntities(Entity... es) {
+        try {
+            repo.addEntities(es);
+        } finally {
+            invalidate(HashSet.of(es).map(Entity::type));
+        }
+    }
+
+    @Override
+    public Try<Void> tryAddEntities(Entity... es) {
+        try {
+            return repo.tryAddEntities(es);
+        } finally {
+            invalidate(HashSet.of(es).map(Entity::type));
+        }
+    }
+
+    @Override
+    public void createIndexes(List<IndexSpec> indexes) {
+        repo.createIndexes(indexes);
+    }
+
+    @Override
+    public boolean supports(Query q) {
+        return repo.supports(q);
+    }
+
+    @Override
+    public Try<List<List<Object>>> select(Query q) {
+        Option<List<List<Object>>> cached = cached(q);
+        if (cached.isDefined())
+            return Try.success(cached.get());
+
+        long readAt = version();
+        return repo.select(q).peek(rows -> store(q, rows, readAt));
+    }
+
+    @Override
+    public Try<List<List<List<Object>>>> selectAll(List<Query> qs) {
+        long readAt = version();
+        return PartialSelects.selectAll(qs, this::cached, misses -> repo
+                .selectAll(misses)
+                .peek(rows -> misses.zip(rows)
+                        .forEach(t -> store(t._1, t._2, readAt))));
+    }
+
+    @Override
+    public Try<Stream<List<Object>>> selectStream(Query q) {
+        return cached(q)
+                .map(rows -> Try.success(rows.toJavaStream()))
+                .getOrElse(() -> repo.selectStream(q));
+    }
+
+    @Override
+    public Try<ColumnarResult> selectColumnar(Query q) {
+        return cached(q)
+                .map(rows -> Try.success(ColumnarResult.ofRows(
+                        q.select().map(ColumnarResult::columnType),
+                        rows)))
+                .getOrElse(() -> repo.selectColumnar(q));
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private Option<List<List<Object>>> cached(Query q) {
+        long now = System.nanoTime();
+        return Option.of(cache.get(q, e -> e.expiresAt() - now > 0))
+                .map(Entry::rows);
+    }
+
+    private synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Caches {@code rows} unless a write touched the store since
+     * {@code readAt}.
+     */
+    private synchronized void store(Query q, List<List<Object>> rows, long readAt) {
+        if (version == readAt)
+            cache.put(q, new Entry(
+                    rows,
+                    types(q),
+                    System.nanoTime() + ttl.toNanos()));
+    }
+
+    /**
+     * Bumps the version first so that a select that read the old rows
+     * while the write was in flight does not cache them afterwards.
+     */
+    private synchronized void invalidate(Set<EntityType> types) {
+        version++;
+        cache.evictIf(e -> e.types().exists(types::contains));
+    }
+
+    private static Set<EntityType> types(Query q) {
+        return HashSet.of(q.from().et())
+                .addAll(q.joins().map(j -> j.from().et()));
+    }
+}
@@ -0,0 +1,68 @@
+package query;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancel hooks of the repository call running on the current thread, so
+ * that cancelling an {@link AsyncRepository} task reaches the JDBC
+ * statement or Mongo cursor it is blocked on. Outside an async task
+ * registering a hook does nothing.
+ */
+final class Cancellation {
+    @FunctionalInterface
+    interface Hook {
+        void cancel() throws Exception;
+    }
+
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+
+    private final java.util.List<Hook> hooks = new ArrayList<>();
+    private boolean cancelled;
+    private boolean closed;
+
+    static void register(Hook hook) {
+        Cancellation current = CURRENT.get();
+        if (current != null)
+            current.add(hook);
+    }
+
+    void enter() {
+        CURRENT.set(this);
+    }
+
+    /**
+     * Detaches this scope from the thread; hooks registered so far refer to
+     * resources that may be reused afterwards and are never run.
+     */
+    synchronized void close() {
+        closed = true;
+        hooks.clear();
+        CURRENT.remove();
+    }
+
+    synchronized void cancel() {
+        if (cancelled || closed)
+            return;
+        cancelled = true;
+        hooks.forEach(Cancellation::runQuietly);
+        hooks.clear();
+    }
+
+    private synchronized void add(Hook hook) {
+        if (closed)
+            return;
+        if (cancelled) {
+            runQuietly(hook);
+            throw new CancellationException();
+        }
+        hooks.add(hook);
+    }
+
+    private static void runQuietly(Hook hook) {
+        try {
+            hook.cancel();
+        } catch (Exception ignored) {
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package query;
+
+public sealed interface Column {
+    int size();
+    long[] nulls();
+
+    default boolean isNull(int row) {
+        return (nulls()[row >>> 6] & (1L << row)) != 0;
+    }
+
+    record IntColumn(int[] values, long[] nulls, int size) implements Column {}
+
+    record StrColumn(int[] codes, String[] dictionary, long[] nulls, int size)
+            implements Column {}
+}
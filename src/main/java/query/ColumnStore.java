@@ -0,0 +1,134 @@
+package query;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Growable column of one attribute in {@link InMemoryRepo}: {@link IntStore}
+ * keeps {@code int} values, {@link StrStore} dictionary codes, both with a
+ * null bitmap. Cells are never updated once appended.
+ */
+sealed interface ColumnStore {
+    int size();
+    boolean isNull(int row);
+
+    /** Boxed value of a cell, or null. */
+    Object get(int row);
+
+    /** Appends a value of the column's type, or null. */
+    void append(Object value);
+
+    static ColumnStore of(AttrType type) {
+        return switch (type) {
+            case Int -> new IntStore();
+            case Str -> new StrStore();
+        };
+    }
+
+    abstract class NullableStore {
+        protected long[] nulls = new long[1];
+        protected int size;
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isNull(int row) {
+            return (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        protected void grow(int capacity) {
+            if ((capacity + 63) >>> 6 > nulls.length)
+                nulls = Arrays.copyOf(nulls, Math.max(nulls.length * 2, (capacity + 63) >>> 6));
+        }
+
+        protected void markNull(int row) {
+            nulls[row >>> 6] |= 1L << row;
+        }
+    }
+
+    final class IntStore
+            extends NullableStore
+            implements ColumnStore {
+        private int[] values = new int[64];
+
+        int[] values() {
+            return values;
+        }
+
+        int getInt(int row) {
+            return values[row];
+        }
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        public void append(Object value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            grow(size + 1);
+            if (value == null)
+                markNull(size);
+            else
+                values[size] = ((Number) value).intValue();
+            size++;
+        }
+    }
+
+    final class StrStore
+            extends NullableStore
+            implements ColumnStore {
+        private int[] codes = new int[64];
+        private String[] dictionary = new String[16];
+        private int dictionarySize;
+        private final Map<String, Integer> lookup = new HashMap<>();
+
+        int[] codes() {
+            return codes;
+        }
+
+        String decode(int code) {
+            return dictionary[code];
+        }
+
+        int dictionarySize() {
+            return dictionarySize;
+        }
+
+        /** Code of {@code s}, or -1 when no cell holds it. */
+        int code(String s) {
+            Integer code = lookup.get(s);
+            return code == null ? -1 : code;
+        }
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : dictionary[codes[row]];
+        }
+
+        @Override
+        public void append(Object value) {
+            if (size == codes.length)
+                codes = Arrays.copyOf(codes, size * 2);
+            grow(size + 1);
+            if (value == null) {
+                markNull(size);
+                codes[size] = -1;
+            } else {
+                codes[size] = lookup.computeIfAbsent((String) value, this::encode);
+            }
+            size++;
+        }
+
+        private int encode(String s) {
+            if (dictionarySize == dictionary.length)
+                dictionary = Arrays.copyOf(dictionary, dictionarySize * 2);
+            dictionary[dictionarySize] = s;
+            return dictionarySize++;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package query;
+
+import io.vavr.collection.List;
+import query.Column.IntColumn;
+import query.Column.StrColumn;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Query result stored column by column: {@link AttrType#Int} columns as
+ * {@code int[]}, {@link AttrType#Str} columns as dictionary codes, each with
+ * a null bitmap. Typed accessors read cells without boxing.
+ * <p>
+ * {@link #ints}, {@link #codes} and {@link #dictionary} return the result's
+ * own arrays, not copies, so scans stay allocation-free; callers must treat
+ * them as read-only.
+ */
+public final class ColumnarResult {
+    private final Column[] columns;
+    private final int rowCount;
+
+    private ColumnarResult(Column[] columns, int rowCount) {
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public int columnCount() {
+        return columns.length;
+    }
+
+    public AttrType type(int col) {
+        return switch (columns[col]) {
+            case IntColumn ignored -> AttrType.Int;
+            case StrColumn ignored -> AttrType.Str;
+        };
+    }
+
+    public boolean isNull(int row, int col) {
+        return columns[col].isNull(row);
+    }
+
+    public int getInt(int row, int col) {
+        return ints(col)[row];
+    }
+
+    public String getString(int row, int col) {
+        return isNull(row, col)
+                ? null
+                : dictionary(col)[codes(col)[row]];
+    }
+
+    /** Values of an Int column, shared with this result; null cells hold 0. */
+    public int[] ints(int col) {
+        return asInt(col).values();
+    }
+
+    /**
+     * Dictionary codes of a Str column, shared with this result; null cells
+     * hold -1.
+     */
+    public int[] codes(int col) {
+        return asStr(col).codes();
+    }
+
+    /** Dictionary of a Str column, shared with this result. */
+    public String[] dictionary(int col) {
+        return asStr(col).dictionary();
+    }
+
+    public List<List<Object>> toRows() {
+        return List.range(0, rowCount)
+                .map(row -> List.range(0, columns.length)
+                        .map(col -> cell(row, col)));
+    }
+
+    private Object cell(int row, int col) {
+        if (isNull(row, col))
+            return null;
+        return switch (columns[col]) {
+            case IntColumn c -> c.values()[row];
+            case StrColumn c -> c.dictionary()[c.codes()[row]];
+        };
+    }
+
+    private IntColumn asInt(int col) {
+        if (columns[col] instanceof IntColumn c)
+            return c;
+        throw new IllegalArgumentException("column " + col + " is not Int");
+    }
+
+    private StrColumn asStr(int col) {
+        if (columns[col] instanceof StrColumn c)
+            return c;
+        throw new IllegalArgumentException("column " + col + " is not Str");
+    }
+
+    public static AttrType columnType(SelectTerm term) {
+        return switch (term) {
+            case AttrSelectTerm at -> at.attr().type();
+            case Aggregation a -> a.at() == AggrType.COUNT
+                    ? AttrType.Int
+                    : a.t().attr().type();
+        };
+    }
+
+    public static Builder builder(List<AttrType> types) {
+        return new Builder(types);
+    }
+
+    public static ColumnarResult ofRows(
+            List<AttrType> types,
+            Iterable<List<Object>> rows
+    ) {
+        Builder b = builder(types);
+        for (List<Object> row : rows) {
+            int col = 0;
+            for (Object value : row)
+                b.append(col++, value);
+            b.endRow();
+        }
+        return b.build();
+    }
+
+    public static final class Builder {
+        private final AttrType[] types;
+        private final int[][] values;
+        private final long[][] nulls;
+        private final java.util.List<Map<String, Integer>> codes;
+        private int rows;
+        private int capacity = 64;
+
+        private Builder(List<AttrType> types) {
+            this.types = types.toJavaArray(AttrType[]::new);
+            this.values = new int[this.types.length][capacity];
+            this.nulls = new long[this.types.length][(capacity >>> 6) + 1];
+            this.codes = new java.util.ArrayList<>();
+            for (AttrType ignored : this.types)
+                codes.add(new HashMap<>());
+        }
+
+        public Builder appendInt(int col, int value) {
+            ensureCapacity();
+            values[col][rows] = value;
+            return this;
+        }
+
+        public Builder appendString(int col, String value) {
+            if (value == null)
+                return appendNull(col);
+            ensureCapacity();
+            Map<String, Integer> dict = codes.get(col);
+            Integer code = dict.get(value);
+            if (code == null) {
+                code = dict.size();
+                dict.put(value, code);
+            }
+            values[col][rows] = code;
+            return this;
+        }
+
+        public Builder appendNull(int col) {
+            ensureCapacity();
+            values[col][rows] = types[col] == AttrType.Str ? -1 : 0;
+            nulls[col][rows >>> 6] |= 1L << rows;
+            return this;
+        }
+
+        public Builder append(int col, Object value) {
+            if (value == null)
+                return appendNull(col);
+            return switch (types[col]) {
+                case Int -> appendInt(col, ((Number) value).intValue());
+                case Str -> appendString(col, value.toString());
+            };
+        }
+
+        public Builder endRow() {
+            rows++;
+            return this;
+        }
+
+        public ColumnarResult build() {
+            Column[] columns = new Column[types.length];
+            for (int col = 0; col < types.length; col++) {
+                int[] vs = Arrays.copyOf(values[col], rows);
+                long[] ns = Arrays.copyOf(nulls[col], (rows + 63) >>> 6);
+                columns[col] = switch (types[col]) {
+                    case Int -> new IntColumn(vs, ns, rows);
+                    case Str -> new StrColumn(vs, dictionary(col), ns, rows);
+                };
+            }
+            return new ColumnarResult(columns, rows);
+        }
+
+        private String[] dictionary(int col) {
+            String[] dict = new String[codes.get(col).size()];
+            codes.get(col).forEach((value, code) -> dict[code] = value);
+            return dict;
+        }
+
+        private void ensureCapacity() {
+            if (rows < capacity)
+                return;
+            capacity *= 2;
+            for (int col = 0; col < types.length; col++) {
+                values[col] = Arrays.copyOf(values[col], capacity);
+                nulls[col] = Arrays.copyOf(nulls[col], (capacity >>> 6) + 1);
+            }
+        }
+    }
+}
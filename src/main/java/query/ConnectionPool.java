@@ -0,0 +1,291 @@
+package query;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of JDBC connections. Callers block up to
+ * {@link PoolConfig#acquireTimeout()} for a free slot; idle connections are
+ * validated before being handed out and closed once they have been idle for
+ * longer than {@link PoolConfig#idleTimeout()}. Closing a pooled connection
+ * returns it to the pool.
+ */
+public class ConnectionPool
+        implements DataSource, AutoCloseable {
+
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private record IdleConnection(Connection physical, long idleSince) {}
+
+    private final ConnectionFactory factory;
+    private final PoolConfig config;
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final List<Consumer<Connection>> discardListeners =
+            new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    public ConnectionPool(ConnectionFactory factory, PoolConfig config) {
+        this.factory = factory;
+        this.config = config;
+        this.permits = new Semaphore(config.maxSize(), true);
+    }
+
+    public ConnectionPool(DataSource source, PoolConfig config) {
+        this(source::getConnection, config);
+    }
+
+    public static ConnectionPool forUrl(
+            String url,
+            String user,
+            String password,
+            PoolConfig config
+    ) {
+        return new ConnectionPool(
+                () -> DriverManager.getConnection(url, user, password),
+                config);
+    }
+
+    @Override
+    public Connection getConnection()
+    throws SQLException {
+        if (closed)
+            throw new SQLException("connection pool is closed");
+
+        evictIdle();
+        acquirePermit();
+        try {
+            Connection physical = takeIdle();
+            if (physical == null)
+                physical = factory.open();
+            active.incrementAndGet();
+            return pooled(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password)
+    throws SQLException {
+        throw new SQLFeatureNotSupportedException(
+                "pooled connections use the pool credentials");
+    }
+
+    /**
+     * Registers {@code listener} to be told about every physical connection
+     * the pool closes, just before it is closed.
+     */
+    public void onDiscard(Consumer<Connection> listener) {
+        discardListeners.add(listener);
+    }
+
+    public PoolMetrics metrics() {
+        synchronized (idle) {
+            return new PoolMetrics(
+                    active.get(),
+                    idle.size(),
+                    permits.getQueueLength());
+        }
+    }
+
+    public void evictIdle() {
+        long cutoff = System.nanoTime() - config.idleTimeout().toNanos();
+        synchronized (idle) {
+            Iterator<IdleConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                IdleConnection c = it.next();
+                if (c.idleSince() - cutoff > 0)
+                    break;
+                it.remove();
+                discard(c.physical());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (idle) {
+            idle.forEach(c -> discard(c.physical()));
+            idle.clear();
+        }
+    }
+
+    private void acquirePermit()
+    throws SQLException {
+        try {
+            if (!permits.tryAcquire(
+                    config.acquireTimeout().toNanos(),
+                    TimeUnit.NANOSECONDS))
+                throw new SQLTimeoutException(
+                        "timed out after " + config.acquireTimeout() +
+                                " waiting for a connection");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for a connection", e);
+        }
+    }
+
+    private Connection takeIdle() {
+        while (true) {
+            IdleConnection c;
+            synchronized (idle) {
+                c = idle.pollFirst();
+            }
+            if (c == null)
+                return null;
+            if (isValid(c.physical()))
+                return c.physical();
+            discard(c.physical());
+        }
+    }
+
+    private boolean isValid(Connection c) {
+        try {
+            return c.isValid(config.validationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(Connection physical) {
+        active.decrementAndGet();
+        try {
+            if (closed || physical.isClosed()) {
+                discard(physical);
+                return;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            synchronized (idle) {
+                idle.addFirst(new IdleConnection(physical, System.nanoTime()));
+            }
+        } catch (SQLException e) {
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Connection pooled(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new PooledConnection(physical));
+    }
+
+    private void discard(Connection c) {
+        discardListeners.forEach(l -> l.accept(c));
+        try {
+            c.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private class PooledConnection
+            implements InvocationHandler {
+        private final Connection physical;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (returned.compareAndSet(false, true))
+                        release(physical);
+                    return null;
+                }
+                case "isClosed" -> {
+                    return returned.get() || physical.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "pooled " + physical;
+                }
+            }
+            if (returned.get())
+                throw new SQLException("connection has been returned to the pool");
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger()
+    throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface)
+    throws SQLException {
+        if (iface.isInstance(this))
+            return (T) this;
+        throw new SQLException("not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
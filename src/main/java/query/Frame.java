@@ -0,0 +1,87 @@
+package query;
+
+import java.util.Arrays;
+
+/**
+ * Tuples of joined rows in {@link InMemoryRepo}: tuple {@code i} is made of
+ * row {@code rows[s][i]} of every source {@code s}.
+ */
+final class Frame {
+    /** Column of an attribute and the source it is read from. */
+    record Slot(int source, ColumnStore column) {}
+
+    private final MemoryTable[] sources;
+    private final int[][] rows;
+    private final int size;
+
+    Frame(MemoryTable[] sources, int[][] rows, int size) {
+        this.sources = sources;
+        this.rows = rows;
+        this.size = size;
+    }
+
+    /** Every row of {@code table} in insertion order. */
+    static Frame scan(MemoryTable table) {
+        int[] all = new int[table.size()];
+        Arrays.setAll(all, i -> i);
+        return new Frame(new MemoryTable[]{table}, new int[][]{all}, all.length);
+    }
+
+    int size() {
+        return size;
+    }
+
+    MemoryTable[] sources() {
+        return sources;
+    }
+
+    int[] rows(int source) {
+        return rows[source];
+    }
+
+    Slot slot(Attr attr) {
+        for (int s = 0; s < sources.length; s++)
+            if (sources[s].contains(attr))
+                return new Slot(s, sources[s].column(attr));
+        throw new IllegalArgumentException(
+                "no joined entity has attribute " + attr.name());
+    }
+
+    int row(Slot slot, int tuple) {
+        return rows[slot.source()][tuple];
+    }
+
+    Object get(Slot slot, int tuple) {
+        return slot.column().get(rows[slot.source()][tuple]);
+    }
+
+    /** The tuples at positions {@code sel}, in that order. */
+    Frame select(int[] sel) {
+        int[][] selected = new int[rows.length][];
+        for (int s = 0; s < rows.length; s++) {
+            int[] from = rows[s];
+            int[] to = new int[sel.length];
+            for (int i = 0; i < sel.length; i++)
+                to[i] = from[sel[i]];
+            selected[s] = to;
+        }
+        return new Frame(sources, selected, sel.length);
+    }
+
+    /**
+     * Tuples made of tuple {@code left[i]} of {@code l} followed by tuple
+     * {@code right[i]} of {@code r}, for the first {@code n} pairs.
+     */
+    static Frame concat(Frame l, int[] left, Frame r, int[] right, int n) {
+        MemoryTable[] sources = Arrays.copyOf(l.sources, l.sources.length + r.sources.length);
+        System.arraycopy(r.sources, 0, sources, l.sources.length, r.sources.length);
+        int[][] rows = new int[sources.length][n];
+        for (int s = 0; s < l.sources.length; s++)
+            for (int i = 0; i < n; i++)
+                rows[s][i] = l.rows[s][left[i]];
+        for (int s = 0; s < r.sources.length; s++)
+            for (int i = 0; i < n; i++)
+                rows[l.sources.length + s][i] = r.rows[s][right[i]];
+        return new Frame(sources, rows, n);
+    }
+}
@@ -0,0 +1,41 @@
+package query;
+
+import io.vavr.collection.List;
+
+public record H2Config(
+        int batchSize,
+        int fetchSize,
+        QueryListener listener,
+        List<IndexSpec> indexes
+) {
+    public H2Config {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be positive");
+        if (fetchSize < 0)
+            throw new IllegalArgumentException("fetchSize must not be negative");
+    }
+
+    public static H2Config defaults() {
+        return new H2Config(1000, 1000, QueryListener.NONE, List.empty());
+    }
+
+    public H2Config withBatchSize(int batchSize) {
+        return new H2Config(batchSize, fetchSize, listener, indexes);
+    }
+
+    public H2Config withFetchSize(int fetchSize) {
+        return new H2Config(batchSize, fetchSize, listener, indexes);
+    }
+
+    public H2Config withListener(QueryListener listener) {
+        return new H2Config(batchSize, fetchSize, listener, indexes);
+    }
+
+    /**
+     * Secondary indexes created by {@link H2Repo#init} along with the
+     * tables of their entity types.
+     */
+    public H2Config withIndexes(List<IndexSpec> indexes) {
+        return new H2Config(batchSize, fetchSize, listener, indexes);
+    }
+}
@@ -1,15 +1,56 @@
 package query;
 
+import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.control.Try;
+import query.QueryShapes.Literal;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.util.stream.Collectors.joining;
 
 public class H2Repo
         implements Repository {
+    private static final String DEFAULT_URL =
+            "jdbc:h2:mem:test;DB_CLOSE_DELAY=-1";
+
+    private final DataSource dataSource;
+    private final QueryCache cache;
+    private final H2Config config;
+
+    public H2Repo() {
+        this(ConnectionPool.forUrl(
+                DEFAULT_URL, "sa", "", PoolConfig.defaults()));
+    }
+
+    public H2Repo(DataSource dataSource) {
+        this(dataSource, new QueryCache(256, 64));
+    }
+
+    public H2Repo(DataSource dataSource, QueryCache cache) {
+        this(dataSource, cache, H2Config.defaults());
+    }
+
+    public H2Repo(DataSource dataSource, QueryCache cache, H2Config config) {
+        this.dataSource = dataSource;
+        this.cache = cache;
+        this.config = config;
+        if (dataSource instanceof ConnectionPool pool)
+            pool.onDiscard(cache::discard);
+    }
+
+    public QueryCache queryCache() {
+        return cache;
+    }
+
     @Override
     public void init(EntityType... types) {
         Try.run(() -> init(List.of(types)));
@@ -17,7 +58,12 @@ public class H2Repo
 
     @Override
     public void addEntities(Entity... es) {
-        Try.run(() -> addEntities(List.of(es)));
+        tryAddEntities(es);
+    }
+
+    @Override
+    public Try<Void> tryAddEntities(Entity... es) {
+        return Try.run(() -> addEntities(List.of(es)));
     }
 
     @Override
@@ -25,11 +71,34 @@ public class H2Repo
         return Try.of(() -> query(q));
     }
 
+    /**
+     * Queries of the same shape are merged into one statement, a
+     * {@code union all} of their selects tagged with the query's position
+     * and ordered by tag, then by the queries' own order keys, and the rows
+     * split back by tag. The listener sees one trace per
+     * statement, under the first query of its shape.
+     */
+    @Override
+    public Try<List<List<List<Object>>>> selectAll(List<Query> qs) {
+        return Try.of(() -> queryAll(qs));
+    }
+
+    @Override
+    public Try<Stream<List<Object>>> selectStream(Query q) {
+        return Try.of(() -> stream(q));
+    }
+
+    @Override
+    public Try<ColumnarResult> selectColumnar(Query q) {
+        return Try.of(() -> columnar(q));
+    }
+
     private void init(List<EntityType> types)
     throws SQLException {
+        cache.invalidateStatements();
         for (EntityType type : types) {
             try (
-                    Connection c = createConnection();
+                    Connection c = dataSource.getConnection();
                     Statement s = c.createStatement()
             ) {
                 s.execute("drop table if exists " + type.name());
@@ -43,6 +112,22 @@ public class H2Repo
                 s.execute(ddl);
             }
         }
+        createIndexes(config.indexes().filter(i -> types.contains(i.type())));
+    }
+
+    @Override
+    public void createIndexes(List<IndexSpec> indexes) {
+        Try.run(() -> {
+            try (
+                    Connection c = dataSource.getConnection();
+                    Statement s = c.createStatement()
+            ) {
+                for (IndexSpec index : indexes)
+                    s.execute("create index if not exists " + index.name() +
+                            " on " + index.type().name() + " (" +
+                            index.attrs().map(this::toSql).mkString(", ") + ")");
+            }
+        }).get();
     }
 
     private String colDdl(Attr attr) {
@@ -54,21 +139,47 @@ public class H2Repo
 
     private void addEntities(List<Entity> es)
     throws SQLException {
-        try (Connection c = createConnection()) {
-            for (Entity e : es) {
-                String dml = List.of("id")
-                        .appendAll(e.attrs()
-                                .map(AttrValue::attr)
-                                .map(this::toSql))
-                        .collect(joining(", "));
+        try (Connection c = dataSource.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                for (List<Entity> group : es
+                        .groupBy(e -> new Layout(
+                                e.type(),
+                                e.attrs().map(AttrValue::attr)))
+                        .values()) {
+                    insert(c, group);
+                }
+                c.commit();
+            } catch (SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
+    private record Layout(EntityType type, List<Attr> attrs) {}
+
+    private void insert(Connection c, List<Entity> group)
+    throws SQLException {
+        Entity first = group.head();
+        String dml = List.of("id")
+                .appendAll(first.attrs()
+                        .map(AttrValue::attr)
+                        .map(this::toSql))
+                .collect(joining(", "));
 
-                int idx = 0;
-                try (
-                        PreparedStatement insert = c.prepareStatement(
-                                "insert into " + e.type().name() +
-                                        " (" + dml + ") values (" +
-                                        "?" + ", ?" .repeat(e.attrs().size()) + ")")
-                ) {
+        try (
+                PreparedStatement insert = c.prepareStatement(
+                        "insert into " + first.type().name() +
+                                " (" + dml + ") values (" +
+                                "?" + ", ?" .repeat(first.attrs().size()) + ")")
+        ) {
+            Cancellation.register(insert::cancel);
+            for (List<Entity> batch : group.grouped(config.batchSize())) {
+                for (Entity e : batch) {
+                    int idx = 0;
                     insert.setString(++idx, e.id());
                     for (AttrValue a : e.attrs()) {
                         switch (a) {
@@ -80,60 +191,314 @@ public class H2Repo
                                     i.value());
                         }
                     }
-                    insert.execute();
+                    insert.addBatch();
                 }
+                insert.executeBatch();
             }
         }
     }
 
-    private List<List<Object>> query(Query q) throws SQLException {
-        String sql = toSqlQuery(q);
+    private record Compiled(String sql, List<Literal> params, List<Integer> paging) {}
 
-        try (
-                Connection c = createConnection();
-                PreparedStatement select = c.prepareStatement(sql)
-        ) {
-            ResultSet rs = select.executeQuery();
-            java.util.List<java.util.List<Object>> rows = new ArrayList<>();
+    private QueryTracer tracer(Query q) {
+        return new QueryTracer(config.listener(), "h2", q);
+    }
 
-            while (rs.next()) {
-                java.util.List<Object> row = new ArrayList<>();
+    private Compiled compile(Query query, QueryTracer t) {
+        Query q = PredicateNormalizer.normalize(query);
+        String sql = cache.sql(QueryShapes.shape(q), this::toSqlQuery);
+        List<Literal> params = QueryShapes.literals(q);
+        t.statement(() -> sql);
+        t.mark(QueryPhase.TRANSLATE);
+        return new Compiled(sql, params, QueryShapes.paging(q));
+    }
 
-                int i = 1;
-                for (SelectTerm term : q.select()) {
-                    Object value = switch (term) {
-                        case AttrSelectTerm at -> readAttr(i, at.attr(), rs);
-                        case Aggregation aggr -> readAttr(i, aggr.t().attr(), rs);
-                    };
-                    i++;
+    private ResultSet execute(Connection c, Compiled q, QueryTracer t)
+    throws SQLException {
+        t.mark(QueryPhase.ACQUIRE);
+        PreparedStatement select =
+                bind(cache.prepare(c, q.sql()), q.params(), q.paging());
+        select.setFetchSize(config.fetchSize());
+        Cancellation.register(select::cancel);
+        ResultSet rs = select.executeQuery();
+        t.mark(QueryPhase.EXECUTE);
+        return rs;
+    }
 
-                    row.add(value);
+    private List<List<Object>> query(Query q) throws Throwable {
+        QueryTracer t = tracer(q);
+        return t.trace(() -> {
+            Compiled compiled = compile(q, t);
+            try (
+                    Connection c = dataSource.getConnection();
+                    ResultSet rs = execute(c, compiled, t)
+            ) {
+                java.util.List<List<Object>> rows = new ArrayList<>();
+                while (rs.next())
+                    rows.add(t.row(readRow(q, rs)));
+                return List.ofAll(rows);
+            }
+        });
+    }
+
+    private List<List<List<Object>>> queryAll(List<Query> qs) throws Throwable {
+        java.util.List<java.util.List<List<Object>>> results = new ArrayList<>();
+        qs.forEach(q -> results.add(new ArrayList<>()));
+
+        for (List<Tuple2<Query, Integer>> group : qs
+                .map(PredicateNormalizer::normalize)
+                .zipWithIndex()
+                .groupBy(q -> QueryShapes.shape(q._1))
+                .values()) {
+            if (group.size() == 1)
+                results.get(group.head()._2).addAll(
+                        query(group.head()._1).toJavaList());
+            else
+                queryMerged(group, results);
+        }
+        return List.ofAll(results).map(List::ofAll);
+    }
+
+    private void queryMerged(
+            List<Tuple2<Query, Integer>> group,
+            java.util.List<java.util.List<List<Object>>> results
+    ) throws Throwable {
+        Query head = group.head()._1;
+        QueryTracer t = tracer(head);
+        t.trace(() -> {
+            List<OrderBy> orderBy = head.orderBy();
+            String branch = "(" + toSqlQuery(
+                    QueryShapes.shape(head),
+                    "select cast(? as int) as q_idx, " + orderBy
+                            .zipWithIndex()
+                            .map(o -> toSql(o._1.t()) + " as q_key" + o._2 + ", ")
+                            .mkString()) + ")";
+            String sql = group.map(q -> branch).mkString("\nunion all\n") +
+                    "\norder by q_idx" + orderBy
+                    .zipWithIndex()
+                    .map(o -> ", q_key" + o._2 + " " +
+                            o._1.mode().name().toLowerCase())
+                    .mkString();
+            t.statement(() -> sql);
+            t.mark(QueryPhase.TRANSLATE);
+
+            try (Connection c = dataSource.getConnection()) {
+                t.mark(QueryPhase.ACQUIRE);
+                PreparedStatement select = cache.prepare(c, sql);
+                int idx = 0;
+                for (Tuple2<Query, Integer> q : group) {
+                    select.setInt(++idx, q._2);
+                    idx = bind(select, idx,
+                            QueryShapes.literals(q._1),
+                            QueryShapes.paging(q._1));
+                }
+                select.setFetchSize(config.fetchSize());
+                Cancellation.register(select::cancel);
+                try (ResultSet rs = select.executeQuery()) {
+                    t.mark(QueryPhase.EXECUTE);
+                    while (rs.next())
+                        results.get(rs.getInt(1))
+                                .add(t.row(readRow(
+                                        head, rs, 1 + orderBy.size())));
+                }
+            }
+            return null;
+        });
+    }
+
+    private ColumnarResult columnar(Query q) throws Throwable {
+        QueryTracer t = tracer(q);
+        return t.trace(() -> {
+            Compiled compiled = compile(q, t);
+            AttrType[] types = q.select()
+                    .map(ColumnarResult::columnType)
+                    .toJavaArray(AttrType[]::new);
+            ColumnarResult.Builder result =
+                    ColumnarResult.builder(List.of(types));
+            long bytes = 0;
+
+            try (
+                    Connection c = dataSource.getConnection();
+                    ResultSet rs = execute(c, compiled, t)
+            ) {
+                while (rs.next()) {
+                    for (int col = 0; col < types.length; col++) {
+                        switch (types[col]) {
+                            case Int -> {
+                                int value = rs.getInt(col + 1);
+                                if (rs.wasNull())
+                                    result.appendNull(col);
+                                else
+                                    result.appendInt(col, value);
+                                bytes += Integer.BYTES;
+                            }
+                            case Str -> {
+                                String value = rs.getString(col + 1);
+                                result.appendString(col, value);
+                                bytes += QueryTracer.estimateBytes(value);
+                            }
+                        }
+                    }
+                    result.endRow();
                 }
+                ColumnarResult built = result.build();
+                t.rows(built.rowCount(), bytes);
+                return built;
+            }
+        });
+    }
+
+    private Stream<List<Object>> stream(Query q) throws SQLException {
+        QueryTracer t = tracer(q);
+        Compiled compiled;
+        Connection c;
+        try {
+            compiled = compile(q, t);
+            c = dataSource.getConnection();
+        } catch (SQLException | RuntimeException e) {
+            t.finish(e);
+            throw e;
+        }
+        try {
+            setLazy(c, true);
+            ResultSet rs = execute(c, compiled, t);
+
+            return StreamSupport.stream(
+                    new Spliterators.AbstractSpliterator<List<Object>>(
+                            Long.MAX_VALUE, Spliterator.ORDERED) {
+                        @Override
+                        public boolean tryAdvance(
+                                Consumer<? super List<Object>> action
+                        ) {
+                            boolean next = Try.of(rs::next).get();
+                            if (next)
+                                action.accept(t.row(
+                                        Try.of(() -> readRow(q, rs)).get()));
+                            return next;
+                        }
+                    }, false)
+                    .onClose(() -> Try.run(() -> {
+                        try (c) {
+                            rs.close();
+                            setLazy(c, false);
+                        } finally {
+                            t.finish(null);
+                        }
+                    }).get());
+        } catch (SQLException | RuntimeException e) {
+            t.finish(e);
+            c.close();
+            throw e;
+        }
+    }
+
+    private void setLazy(Connection c, boolean lazy) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.execute("set lazy_query_execution " + (lazy ? 1 : 0));
+        }
+    }
+
+    private List<Object> readRow(Query q, ResultSet rs) throws SQLException {
+        return readRow(q, rs, 0);
+    }
+
+    private List<Object> readRow(Query q, ResultSet rs, int skip)
+    throws SQLException {
+        Object[] row = new Object[q.select().size()];
+
+        int i = 0;
+        for (SelectTerm term : q.select()) {
+            int col = skip + i + 1;
+            row[i] = switch (term) {
+                case AttrSelectTerm at -> readAttr(col, at.attr(), rs);
+                case Aggregation aggr -> readAttr(col, aggr.t().attr(), rs);
+            };
+            i++;
+        }
+        return List.of(row);
+    }
+
+    private PreparedStatement bind(
+            PreparedStatement ps,
+            List<Literal> params,
+            List<Integer> paging
+    )
+    throws SQLException {
+        bind(ps, 0, params, paging);
+        return ps;
+    }
+
+    private int bind(
+            PreparedStatement ps,
+            int idx,
+            List<Literal> params,
+            List<Integer> paging
+    )
+    throws SQLException {
+        for (Literal l : params)
+            bind(ps, ++idx, l);
+        for (int value : paging)
+            ps.setInt(++idx, value);
+        return idx;
+    }
 
-                rows.add(row);
+    private void bind(PreparedStatement ps, int idx, Literal l)
+    throws SQLException {
+        Object value = l.value().value();
+        AttrType type = l.op() == Op.LIKE ? AttrType.Str : l.attr().type();
+        switch (type) {
+            case Str -> {
+                if (value == null)
+                    ps.setNull(idx, Types.VARCHAR);
+                else
+                    ps.setString(idx, value.toString());
+            }
+            case Int -> {
+                if (value == null)
+                    ps.setNull(idx, Types.INTEGER);
+                else if (value instanceof Number n)
+                    ps.setInt(idx, n.intValue());
+                else
+                    ps.setInt(idx, Integer.parseInt(value.toString()));
             }
-            return List.ofAll(rows).map(List::ofAll);
         }
     }
 
-    private String toSqlQuery(Query q) {
-        String select = toSqlSelect(q.select());
+    /**
+     * SQL text for {@code q}, with a {@code ?} placeholder for every literal.
+     */
+    public String toSqlQuery(Query q) {
+        return toSqlQuery(q, "select ");
+    }
+
+    private String toSqlQuery(Query q, String selectPrefix) {
+        String select = selectPrefix + toSqlTerms(q.select());
         String from = toSqlFrom(q.from());
         String joins = toSqlJoins(q.joins());
         String where = toSqlWhere(q.where());
         String groupBy = toSqlGroupBy(q.groupBy());
+        String having = toSqlHaving(q);
         String orderBy = toSqlOrderBy(q.orderBy());
+        String paging = toSqlPaging(q);
 
         return select + "\n" +
                 from + "\n" +
                 joins + "\n" +
                 where + "\n" +
                 groupBy + "\n" +
-                orderBy;
+                having + "\n" +
+                orderBy + "\n" +
+                paging;
+    }
+
+    private String toSqlPaging(Query q) {
+        if (q.limit().isDefined())
+            return "limit ?" + (q.offset() > 0 ? " offset ?" : "");
+        return q.offset() > 0 ? "offset ? rows" : "";
     }
 
-    private String toSqlSelect(List<SelectTerm> terms) {
-        return "select " + terms
+    private String toSqlTerms(List<SelectTerm> terms) {
+        return terms
                 .map(this::toSql)
                 .collect(joining(", "));
     }
@@ -168,6 +533,14 @@ public class H2Repo
                 .collect(joining(", "));
     }
 
+    private String toSqlHaving(Query q) {
+        return q.having().isEmpty()
+                ? ""
+                : ("having " + q.having()
+                .map(p -> toSql(p, a -> toSql(Having.resolve(q, a))))
+                .collect(joining(" and ")));
+    }
+
     private String toSqlGroupBy(List<Attr> groupBy) {
         return groupBy.isEmpty()
                 ? ""
@@ -180,27 +553,34 @@ public class H2Repo
     }
 
     private String toSql(Predicate p) {
+        return toSql(p, this::toSql);
+    }
+
+    private String toSql(Predicate p, Function<Attr, String> column) {
         return switch (p) {
             case BinOp binOp -> {
                 if (binOp.right().equals(new Null()))
-                    yield toSql(binOp.left()) +
+                    yield toSql(binOp.left(), column) +
                             " is " +
-                            toSql(binOp.right());
+                            toSql(binOp.right(), column);
                 else
-                    yield toSql(binOp.left()) +
+                    yield toSql(binOp.left(), column) +
                             " " + toSql(binOp.op()) + " " +
-                            toSql(binOp.right());
+                            toSql(binOp.right(), column);
             }
-            case And and -> "( " + toSql(and.left()) + " ) and ( " + toSql(and.right()) + " )";
-            case Or or -> "( " + toSql(or.left()) + " ) or ( " + toSql(or.right()) + " )";
-            case Not not -> "not ( " + toSql(not.predicate()) + " )";
+            case And and -> "( " + toSql(and.left(), column) + " ) and ( " + toSql(and.right(), column) + " )";
+            case Or or -> "( " + toSql(or.left(), column) + " ) or ( " + toSql(or.right(), column) + " )";
+            case Not not -> "not ( " + toSql(not.predicate(), column) + " )";
+            case In in -> toSql(in.left(), column) +
+                    " in (" + in.values().map(v -> "?").mkString(", ") + ")";
+            case Const c -> c.value() ? "1 = 1" : "1 = 0";
         };
     }
 
-    private String toSql(ClauseTerm term) {
+    private String toSql(ClauseTerm term, Function<Attr, String> column) {
         return switch (term) {
-            case AttrClauseTerm at -> at.attr().name();
-            case Value v -> "'" + v.value().toString() + "'";
+            case AttrClauseTerm at -> column.apply(at.attr());
+            case Value ignored -> "?";
             case Null ignored -> "null";
         };
     }
@@ -236,13 +616,10 @@ public class H2Repo
     ) throws SQLException {
         return switch (attr.type()) {
             case Str -> rs.getString(i);
-            case Int -> rs.getInt(i);
+            case Int -> {
+                int value = rs.getInt(i);
+                yield rs.wasNull() ? null : value;
+            }
         };
     }
-
-    private static Connection createConnection()
-    throws SQLException {
-        return DriverManager.getConnection(
-                "jdbc:h2:mem:test;DB_CLOSE_DELAY=-1", "sa", "");
-    }
 }
@@ -0,0 +1,21 @@
+package query;
+
+/**
+ * Resolves the attributes named in {@link Query#having()}: a group-by
+ * attribute stands for the group key, any other attribute for the first
+ * aggregation over it in the select list.
+ */
+final class Having {
+    private Having() {}
+
+    static SelectTerm resolve(Query q, Attr attr) {
+        if (q.groupBy().contains(attr))
+            return new AttrSelectTerm(attr);
+        return q.select()
+                .find(t -> t instanceof Aggregation a
+                        && a.t().attr().equals(attr))
+                .getOrElseThrow(() -> new UnsupportedOperationException(
+                        "having on " + attr.name() +
+                                ", which is neither grouped nor aggregated"));
+    }
+}
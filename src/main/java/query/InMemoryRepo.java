@@ -0,0 +1,225 @@
+package query;
+
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import query.ColumnStore.IntStore;
+import query.ColumnStore.StrStore;
+import query.QueryPlan.JoinPlan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link Repository} kept in process memory. Every entity type is a
+ * {@link MemoryTable} of {@code int[]} and dictionary-encoded columns;
+ * filters run as selection vectors over batches of {@link #BATCH_SIZE}
+ * rows, joins run on {@link JoinEngine}, and grouping on
+ * {@link AggregationEngine} produces a table of its own that having,
+ * ordering and projection read like any other; ordering with a limit
+ * keeps only the top rows, see {@link TopN}. Selects share a lock that
+ * writes hold exclusively.
+ */
+public class InMemoryRepo
+        implements Repository {
+    static final int BATCH_SIZE = 1024;
+
+    private record Result(Frame frame, List<Frame.Slot> columns) {}
+
+    private final Map<String, MemoryTable> tables = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final QueryListener listener;
+    private final ForkJoinPool pool;
+
+    public InMemoryRepo() {
+        this(QueryListener.NONE);
+    }
+
+    public InMemoryRepo(QueryListener listener) {
+        this(listener, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool runs group-by over more than
+     *             {@link AggregationEngine#PARTITION_SIZE} tuples in parallel
+     */
+    public InMemoryRepo(QueryListener listener, ForkJoinPool pool) {
+        this.listener = listener;
+        this.pool = pool;
+    }
+
+    @Override
+    public void init(EntityType... types) {
+        lock.writeLock().lock();
+        try {
+            for (EntityType type : types)
+                tables.put(type.name(), new MemoryTable(type));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the entities, creating the tables of types that were not
+     * initialized; adds nothing if any id is already taken.
+     */
+    @Override
+    public void addEntities(Entity... es) {
+        lock.writeLock().lock();
+        try {
+            Set<String> added = new HashSet<>();
+            for (Entity e : es) {
+                MemoryTable table = tables.get(e.type().name());
+                if (!added.add(e.type().name() + "/" + e.id())
+                        || table != null && table.containsId(e.id()))
+                    throw new IllegalArgumentException(
+                            "duplicate id " + e.id() + " in " + e.type().name());
+            }
+            for (Entity e : es)
+                tables.computeIfAbsent(e.type().name(), n -> new MemoryTable(e.type()))
+                        .append(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Try<List<List<Object>>> select(Query q) {
+        return Try.of(() -> query(q));
+    }
+
+    @Override
+    public Try<ColumnarResult> selectColumnar(Query q) {
+        return Try.of(() -> columnar(q));
+    }
+
+    private List<List<Object>> query(Query q) throws Throwable {
+        QueryTracer t = new QueryTracer(listener, "memory", q);
+        return t.trace(() -> read(t, () -> {
+            Result r = execute(q, t);
+            java.util.List<List<Object>> rows = new ArrayList<>(r.frame().size());
+            for (int i = 0; i < r.frame().size(); i++) {
+                int tuple = i;
+                rows.add(t.row(r.columns().map(c -> r.frame().get(c, tuple))));
+            }
+            return List.ofAll(rows);
+        }));
+    }
+
+    private ColumnarResult columnar(Query q) throws Throwable {
+        QueryTracer t = new QueryTracer(listener, "memory", q);
+        return t.trace(() -> read(t, () -> {
+            Result r = execute(q, t);
+            ColumnarResult.Builder result = ColumnarResult.builder(
+                    q.select().map(ColumnarResult::columnType));
+            Frame f = r.frame();
+            long bytes = 0;
+            for (int i = 0; i < f.size(); i++) {
+                int col = 0;
+                for (Frame.Slot slot : r.columns()) {
+                    int row = f.row(slot, i);
+                    if (slot.column().isNull(row)) {
+                        result.appendNull(col++);
+                        continue;
+                    }
+                    switch (slot.column()) {
+                        case IntStore ints -> {
+                            result.appendInt(col++, ints.getInt(row));
+                            bytes += Integer.BYTES;
+                        }
+                        case StrStore strs -> {
+                            String s = strs.decode(strs.codes()[row]);
+                            result.appendString(col++, s);
+                            bytes += s.length();
+                        }
+                    }
+                }
+                result.endRow();
+            }
+            t.rows(f.size(), bytes);
+            return result.build();
+        }));
+    }
+
+    private <T> T read(QueryTracer t, io.vavr.CheckedFunction0<T> run) throws Throwable {
+        lock.readLock().lock();
+        try {
+            t.mark(QueryPhase.ACQUIRE);
+            return run.apply();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Result execute(Query query, QueryTracer t) {
+        Query q = PredicateNormalizer.normalize(query);
+        QueryPlan plan = QueryOptimizer.plan(q);
+        t.statement(plan::toString);
+
+        Frame f = scan(table(q.from().et()), plan.base());
+        for (JoinPlan jp : plan.joins()) {
+            f = JoinEngine.join(f, scan(table(jp.join().from().et()), jp.pushed()), jp.join().on());
+            f = f.select(VectorFilter.filter(f, jp.after(), VectorFilter.range(0, f.size())));
+        }
+
+        boolean grouped = !q.groupBy().isEmpty()
+                || q.select().exists(s -> s instanceof Aggregation);
+        if (grouped) {
+            f = Frame.scan(AggregationEngine.aggregate(q, f, pool));
+            f = f.select(VectorFilter.filter(
+                    f,
+                    q.having().map(p -> mapAttrs(p, a -> AggregationEngine.column(Having.resolve(q, a)))),
+                    VectorFilter.range(0, f.size())));
+        }
+
+        f = TopN.select(f, q.orderBy(), q.offset(), q.limit());
+        Frame result = f;
+        List<Frame.Slot> columns = q.select().map(s -> result.slot(AggregationEngine.column(s)));
+        t.mark(QueryPhase.EXECUTE);
+        return new Result(result, columns);
+    }
+
+    private MemoryTable table(EntityType type) {
+        MemoryTable table = tables.get(type.name());
+        if (table == null)
+            throw new IllegalArgumentException("unknown entity type " + type.name());
+        return table;
+    }
+
+    private static Frame scan(MemoryTable table, List<Predicate> filters) {
+        Frame all = Frame.scan(table);
+        if (filters.isEmpty())
+            return all;
+        int[] sel = new int[all.size()];
+        int n = 0;
+        for (int from = 0; from < all.size(); from += BATCH_SIZE) {
+            int[] batch = VectorFilter.filter(all, filters,
+                    VectorFilter.range(from, Math.min(from + BATCH_SIZE, all.size())));
+            System.arraycopy(batch, 0, sel, n, batch.length);
+            n += batch.length;
+        }
+        return all.select(Arrays.copyOf(sel, n));
+    }
+
+    private static Predicate mapAttrs(Predicate p, java.util.function.Function<Attr, Attr> f) {
+        return switch (p) {
+            case BinOp b -> new BinOp(
+                    new AttrClauseTerm(f.apply(b.left().attr())),
+                    b.op(),
+                    b.right() instanceof AttrClauseTerm r
+                            ? new AttrClauseTerm(f.apply(r.attr()))
+                            : b.right());
+            case And a -> new And(mapAttrs(a.left(), f), mapAttrs(a.right(), f));
+            case Or o -> new Or(mapAttrs(o.left(), f), mapAttrs(o.right(), f));
+            case Not n -> new Not(mapAttrs(n.predicate(), f));
+            case In in -> new In(new AttrClauseTerm(f.apply(in.left().attr())), in.values());
+            case Const c -> c;
+        };
+    }
+}
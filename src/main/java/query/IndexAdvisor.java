@@ -0,0 +1,36 @@
+package query;
+
+import io.vavr.collection.List;
+
+/**
+ * Proposes secondary indexes from a {@link WorkloadRecorder}: candidate
+ * keys serving at least a given number of queries, most used first, without
+ * keys that are a prefix of another proposed key on the same entity, since
+ * the longer index serves both.
+ */
+public final class IndexAdvisor {
+    private IndexAdvisor() {}
+
+    public static List<IndexSpec> advise(WorkloadRecorder workload, long minQueries) {
+        List<IndexSpec> proposed = workload.candidates()
+                .filter(c -> c._2 >= minQueries)
+                .toList()
+                .sortBy(c -> -c._2)
+                .map(c -> c._1);
+        return proposed.filter(spec -> !proposed.exists(spec::isPrefixOf));
+    }
+
+    /**
+     * Proposes indexes as {@link #advise} does and creates them on
+     * {@code repo}; returns the proposals.
+     */
+    public static List<IndexSpec> apply(
+            WorkloadRecorder workload,
+            long minQueries,
+            Repository repo
+    ) {
+        List<IndexSpec> indexes = advise(workload, minQueries);
+        repo.createIndexes(indexes);
+        return indexes;
+    }
+}
@@ -0,0 +1,26 @@
+package query;
+
+import io.vavr.collection.List;
+
+/**
+ * Ascending secondary index on {@code attrs} of {@code type}, in key order.
+ */
+public record IndexSpec(EntityType type, List<Attr> attrs) {
+    public IndexSpec {
+        if (attrs.isEmpty())
+            throw new IllegalArgumentException("index needs at least one attribute");
+        if (!type.attrs().containsAll(attrs))
+            throw new IllegalArgumentException(
+                    "index attributes must belong to " + type.name());
+    }
+
+    public String name() {
+        return "idx_" + type.name() + "_" + attrs.map(Attr::name).mkString("_");
+    }
+
+    boolean isPrefixOf(IndexSpec other) {
+        return type.equals(other.type())
+                && attrs.size() < other.attrs().size()
+                && other.attrs().startsWith(attrs);
+    }
+}
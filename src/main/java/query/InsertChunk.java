@@ -0,0 +1,24 @@
+package query;
+
+import com.mongodb.MongoBulkWriteException;
+import io.vavr.control.Option;
+
+/**
+ * Outcome of writing one chunk of {@link MongoRepo#bulkInsert} to a
+ * collection; {@code offset} is the position of the chunk's first entity
+ * among the entities of that collection.
+ */
+public record InsertChunk(
+        String collection,
+        int offset,
+        int size,
+        Option<MongoBulkWriteException> error
+) {
+    public boolean failed() {
+        return error.isDefined();
+    }
+
+    public int failedWrites() {
+        return error.map(e -> e.getWriteErrors().size()).getOrElse(0);
+    }
+}
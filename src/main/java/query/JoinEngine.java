@@ -0,0 +1,334 @@
+package query;
+
+import io.vavr.collection.List;
+import query.ColumnStore.IntStore;
+import query.ColumnStore.StrStore;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Equi-joins of {@link Frame}s for {@link InMemoryRepo}. The equalities
+ * between the two sides become one {@code long} key per tuple: Int values
+ * as they are, Str values as codes of the right side's dictionary, and
+ * compound keys as dense ids. The join then runs as
+ * <ul>
+ *   <li>a merge of the two key sequences when both are already sorted,
+ *   <li>a hash join building on whichever side is cheaper, or
+ *   <li>a nested loop when there is no equality to join on,
+ * </ul>
+ * and the remaining join conditions filter the joined tuples. Output
+ * follows the left side, then the right, whatever the strategy.
+ */
+final class JoinEngine {
+    enum Strategy {MERGE, HASH_BUILD_RIGHT, HASH_BUILD_LEFT}
+
+    /** Key of a tuple that matches nothing: a null or an unknown value. */
+    static final long NO_KEY = Long.MIN_VALUE;
+
+    // relative per-tuple costs: inserting into the hash table is a few
+    // times dearer than probing it or stepping through a merge, and a
+    // hash join built on the left pays for putting pairs back in order
+    private static final int BUILD_COST = 3;
+    private static final int PROBE_COST = 1;
+    private static final int MERGE_COST = 1;
+    private static final int REORDER_COST = 1;
+
+    private JoinEngine() {}
+
+    static Frame join(Frame left, Frame right, List<Predicate> on) {
+        MemoryTable joined = right.sources()[0];
+        List<Attr> leftKeys = List.empty();
+        List<Attr> rightKeys = List.empty();
+        List<Predicate> residual = List.empty();
+        for (Predicate p : on.flatMap(QueryOptimizer::conjuncts)) {
+            if (p instanceof BinOp b
+                    && b.op() == Op.EQ
+                    && b.right() instanceof AttrClauseTerm r
+                    && joined.contains(b.left().attr()) != joined.contains(r.attr())) {
+                boolean swapped = joined.contains(b.left().attr());
+                leftKeys = leftKeys.append(swapped ? r.attr() : b.left().attr());
+                rightKeys = rightKeys.append(swapped ? b.left().attr() : r.attr());
+            } else {
+                residual = residual.append(p);
+            }
+        }
+
+        Pairs pairs;
+        if (leftKeys.isEmpty()) {
+            pairs = nestedLoop(left.size(), right.size());
+        } else {
+            long[][] keys = keys(
+                    left, leftKeys.map(left::slot),
+                    right, rightKeys.map(right::slot));
+            pairs = join(keys[0], keys[1]);
+        }
+        Frame f = Frame.concat(left, pairs.left, right, pairs.right, pairs.size);
+        return f.select(VectorFilter.filter(f, residual, VectorFilter.range(0, f.size())));
+    }
+
+    static Strategy choose(long[] left, long[] right) {
+        long l = left.length;
+        long r = right.length;
+        long merge = isSorted(left) && isSorted(right)
+                ? MERGE_COST * (l + r)
+                : Long.MAX_VALUE;
+        long buildRight = BUILD_COST * r + PROBE_COST * l;
+        long buildLeft = BUILD_COST * l + PROBE_COST * r + REORDER_COST * Math.max(l, r);
+        if (merge <= Math.min(buildRight, buildLeft))
+            return Strategy.MERGE;
+        return buildLeft < buildRight ? Strategy.HASH_BUILD_LEFT : Strategy.HASH_BUILD_RIGHT;
+    }
+
+    static Pairs join(long[] left, long[] right) {
+        return switch (choose(left, right)) {
+            case MERGE -> merge(left, right);
+            case HASH_BUILD_RIGHT -> hash(left, right, false);
+            case HASH_BUILD_LEFT -> hash(left, right, true);
+        };
+    }
+
+    /** Pairs of matching positions, ordered by left then right position. */
+    static final class Pairs {
+        private int[] left = new int[16];
+        private int[] right = new int[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        int left(int i) {
+            return left[i];
+        }
+
+        int right(int i) {
+            return right[i];
+        }
+
+        private void add(int l, int r) {
+            if (size == left.length) {
+                left = Arrays.copyOf(left, size * 2);
+                right = Arrays.copyOf(right, size * 2);
+            }
+            left[size] = l;
+            right[size++] = r;
+        }
+    }
+
+    private static Pairs merge(long[] left, long[] right) {
+        Pairs pairs = new Pairs();
+        int i = skipNulls(left, 0);
+        int j = skipNulls(right, 0);
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                i = skipNulls(left, i + 1);
+            } else if (left[i] > right[j]) {
+                j = skipNulls(right, j + 1);
+            } else {
+                long key = left[i];
+                int runEnd = j;
+                while (runEnd < right.length && (right[runEnd] == key || right[runEnd] == NO_KEY))
+                    runEnd++;
+                for (; i < left.length && (left[i] == key || left[i] == NO_KEY); i++)
+                    if (left[i] == key)
+                        for (int r = j; r < runEnd; r++)
+                            if (right[r] == key)
+                                pairs.add(i, r);
+                i = skipNulls(left, i);
+                j = skipNulls(right, runEnd);
+            }
+        }
+        return pairs;
+    }
+
+    private static Pairs hash(long[] left, long[] right, boolean buildLeft) {
+        long[] build = buildLeft ? left : right;
+        long[] probe = buildLeft ? right : left;
+        LongMultiMap table = new LongMultiMap(build);
+        Pairs pairs = new Pairs();
+        for (int p = 0; p < probe.length; p++) {
+            if (probe[p] == NO_KEY)
+                continue;
+            for (int b = table.first(probe[p]); b >= 0; b = table.next(b)) {
+                if (buildLeft)
+                    pairs.add(b, p);
+                else
+                    pairs.add(p, b);
+            }
+        }
+        return buildLeft ? byLeft(pairs, left.length) : pairs;
+    }
+
+    private static Pairs nestedLoop(int left, int right) {
+        Pairs pairs = new Pairs();
+        for (int l = 0; l < left; l++)
+            for (int r = 0; r < right; r++)
+                pairs.add(l, r);
+        return pairs;
+    }
+
+    /** Stable counting sort of the pairs by left position. */
+    private static Pairs byLeft(Pairs pairs, int leftSize) {
+        int[] start = new int[leftSize + 1];
+        for (int i = 0; i < pairs.size; i++)
+            start[pairs.left[i] + 1]++;
+        for (int l = 0; l < leftSize; l++)
+            start[l + 1] += start[l];
+        Pairs sorted = new Pairs();
+        sorted.left = new int[Math.max(16, pairs.size)];
+        sorted.right = new int[sorted.left.length];
+        sorted.size = pairs.size;
+        for (int i = 0; i < pairs.size; i++) {
+            int at = start[pairs.left[i]]++;
+            sorted.left[at] = pairs.left[i];
+            sorted.right[at] = pairs.right[i];
+        }
+        return sorted;
+    }
+
+    private static int skipNulls(long[] keys, int from) {
+        while (from < keys.length && keys[from] == NO_KEY)
+            from++;
+        return from;
+    }
+
+    private static boolean isSorted(long[] keys) {
+        long last = NO_KEY;
+        for (long key : keys) {
+            if (key == NO_KEY)
+                continue;
+            if (key < last)
+                return false;
+            last = key;
+        }
+        return true;
+    }
+
+    /**
+     * Join keys of every left and right tuple in a shared {@code long}
+     * domain; {@link #NO_KEY} where a key value is null or cannot match.
+     */
+    private static long[][] keys(
+            Frame left,
+            List<Frame.Slot> leftSlots,
+            Frame right,
+            List<Frame.Slot> rightSlots
+    ) {
+        if (leftSlots.size() == 1) {
+            Frame.Slot l = leftSlots.head();
+            Frame.Slot r = rightSlots.head();
+            if (l.column() instanceof IntStore li && r.column() instanceof IntStore ri)
+                return new long[][]{ints(left, l, li), ints(right, r, ri)};
+            if (l.column() instanceof StrStore ls && r.column() instanceof StrStore rs)
+                return new long[][]{translated(left, l, ls, rs), codes(right, r, rs)};
+        }
+        Map<java.util.List<Object>, Long> ids = new HashMap<>();
+        long[] rightKeys = new long[right.size()];
+        for (int i = 0; i < rightKeys.length; i++) {
+            java.util.List<Object> key = values(right, rightSlots, i);
+            rightKeys[i] = key == null
+                    ? NO_KEY
+                    : ids.computeIfAbsent(key, k -> (long) ids.size());
+        }
+        long[] leftKeys = new long[left.size()];
+        for (int i = 0; i < leftKeys.length; i++) {
+            java.util.List<Object> key = values(left, leftSlots, i);
+            leftKeys[i] = key == null ? NO_KEY : ids.getOrDefault(key, NO_KEY);
+        }
+        return new long[][]{leftKeys, rightKeys};
+    }
+
+    private static long[] ints(Frame f, Frame.Slot slot, IntStore column) {
+        int[] rows = f.rows(slot.source());
+        int[] values = column.values();
+        long[] keys = new long[f.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = column.isNull(rows[i]) ? NO_KEY : values[rows[i]];
+        return keys;
+    }
+
+    private static long[] codes(Frame f, Frame.Slot slot, StrStore column) {
+        int[] rows = f.rows(slot.source());
+        int[] codes = column.codes();
+        long[] keys = new long[f.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = codes[rows[i]] < 0 ? NO_KEY : codes[rows[i]];
+        return keys;
+    }
+
+    /** Codes of a left Str column mapped to the right column's dictionary. */
+    private static long[] translated(Frame f, Frame.Slot slot, StrStore column, StrStore to) {
+        long[] translation = new long[column.dictionarySize()];
+        for (int code = 0; code < translation.length; code++) {
+            int target = to.code(column.decode(code));
+            translation[code] = target < 0 ? NO_KEY : target;
+        }
+        int[] rows = f.rows(slot.source());
+        int[] codes = column.codes();
+        long[] keys = new long[f.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = codes[rows[i]] < 0 ? NO_KEY : translation[codes[rows[i]]];
+        return keys;
+    }
+
+    private static java.util.List<Object> values(Frame f, List<Frame.Slot> slots, int tuple) {
+        java.util.List<Object> key = new java.util.ArrayList<>(slots.size());
+        for (Frame.Slot slot : slots) {
+            Object value = f.get(slot, tuple);
+            if (value == null)
+                return null;
+            key.add(value);
+        }
+        return key;
+    }
+
+    /**
+     * Open-addressing table from {@code long} keys to the positions holding
+     * them, chained in ascending position order.
+     */
+    private static final class LongMultiMap {
+        private final long[] keys;
+        private final int[] heads;
+        private final int[] next;
+        private final int mask;
+
+        LongMultiMap(long[] build) {
+            int capacity = Integer.highestOneBit(Math.max(2, build.length) * 2 - 1) << 1;
+            keys = new long[capacity];
+            heads = new int[capacity];
+            next = new int[build.length];
+            mask = capacity - 1;
+            Arrays.fill(heads, -1);
+            for (int i = build.length - 1; i >= 0; i--) {
+                if (build[i] == NO_KEY)
+                    continue;
+                int slot = slot(build[i]);
+                keys[slot] = build[i];
+                next[i] = heads[slot];
+                heads[slot] = i;
+            }
+        }
+
+        int first(long key) {
+            return heads[slot(key)];
+        }
+
+        int next(int position) {
+            return next[position];
+        }
+
+        private int slot(long key) {
+            int slot = (int) mix(key) & mask;
+            while (heads[slot] >= 0 && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private static long mix(long key) {
+            key *= 0x9E3779B97F4A7C15L;
+            return key ^ (key >>> 32);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package query;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two nanosecond buckets;
+ * percentiles are reported as the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long n = Math.max(nanos, 0);
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(n));
+        count.incrementAndGet();
+        max.accumulateAndGet(n, Math::max);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    public long percentileNanos(double percentile) {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= Math.max(rank, 1))
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
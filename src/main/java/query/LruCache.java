@@ -0,0 +1,112 @@
+package query;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+class LruCache<K, V> {
+    private final LinkedHashMap<K, V> entries;
+    private final Consumer<V> onEvict;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    LruCache(int capacity) {
+        this(capacity, v -> {});
+    }
+
+    LruCache(int capacity, Consumer<V> onEvict) {
+        this.onEvict = onEvict;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() <= capacity)
+                    return false;
+                evictions++;
+                LruCache.this.onEvict.accept(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value != null)
+            hits++;
+        else
+            misses++;
+        return value;
+    }
+
+    /**
+     * Like {@link #get}, but an entry failing {@code valid} is evicted and
+     * counted as a miss.
+     */
+    synchronized V get(K key, Predicate<V> valid) {
+        V value = entries.get(key);
+        if (value != null && !valid.test(value)) {
+            entries.remove(key);
+            evictions++;
+            onEvict.accept(value);
+            value = null;
+        }
+        if (value != null)
+            hits++;
+        else
+            misses++;
+        return value;
+    }
+
+    synchronized void put(K key, V value) {
+        V previous = entries.put(key, value);
+        if (previous != null && previous != value)
+            onEvict.accept(previous);
+    }
+
+    synchronized V computeIfAbsent(K key, Function<K, V> compute) {
+        V value = get(key);
+        if (value == null) {
+            value = compute.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    synchronized V remove(K key) {
+        return entries.remove(key);
+    }
+
+    /**
+     * Evicts every entry matching {@code stale}; returns how many.
+     */
+    synchronized int evictIf(Predicate<V> stale) {
+        int evicted = 0;
+        Iterator<V> it = entries.values().iterator();
+        while (it.hasNext()) {
+            V value = it.next();
+            if (stale.test(value)) {
+                it.remove();
+                onEvict.accept(value);
+                evicted++;
+            }
+        }
+        evictions += evicted;
+        return evicted;
+    }
+
+    synchronized void clear() {
+        entries.values().forEach(onEvict);
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, evictions);
+    }
+}
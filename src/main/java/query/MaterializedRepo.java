@@ -0,0 +1,381 @@
+package query;
+
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Repository decorator answering registered group-by queries from
+ * materialized views. A query that only groups one entity type and selects
+ * its group-by attributes and SUM, COUNT, MIN, MAX or AVG aggregations
+ * keeps one accumulator per group and aggregation, updated by
+ * {@link #addEntities} from the inserted entities alone; AVG is kept as a
+ * sum and a count. Any other registered query is recomputed in full by the
+ * underlying repository on the first read after a write to one of its
+ * entity types. Either way a read costs at most one pass over the groups.
+ * Writes run concurrently with each other but not with {@link #register},
+ * so that a view's initial contents and its updates never overlap.
+ * Streamed, columnar and batched reads of a registered query are answered
+ * from its view too; everything else goes to the underlying repository.
+ */
+public class MaterializedRepo
+        implements Repository {
+    private final Repository repo;
+    private final Map<Query, View> views = new ConcurrentHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public MaterializedRepo(Repository repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Materializes {@code q} from the current contents of the underlying
+     * repository; returns whether it is maintained incrementally.
+     */
+    public boolean register(Query q) {
+        View view = isIncremental(q) ? new Incremental(q) : new Recomputed(q);
+        lock.writeLock().lock();
+        try {
+            view.reset();
+            views.put(q, view);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return view instanceof Incremental;
+    }
+
+    public void unregister(Query q) {
+        views.remove(q);
+    }
+
+    @Override
+    public void init(EntityType... types) {
+        lock.readLock().lock();
+        try {
+            repo.init(types);
+            Set<EntityType> written = HashSet.of(types);
+            for (View view : views.values())
+                if (view.types().exists(written::contains))
+                    view.clear();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores {@code es} through {@link Repository#tryAddEntities}, so a
+     * write the underlying repository reports as failed rebuilds the
+     * affected views from what was actually stored, and is rethrown.
+     */
+    @Override
+    public void addEntities(Entity... es) {
+        tryAddEntities(es).get();
+    }
+
+    /**
+     * Views are rebuilt after a failed write under the write lock, once
+     * concurrent writes have applied their own entities, since the rebuild
+     * reads those entities too.
+     */
+    @Override
+    public Try<Void> tryAddEntities(Entity... es) {
+        List<Entity> added = List.of(es);
+        Try<Void> stored;
+        lock.readLock().lock();
+        try {
+            stored = Try.of(() -> repo.tryAddEntities(es)).flatMap(t -> t);
+            if (stored.isSuccess())
+                for (View view : views.values()) {
+                    List<Entity> touching =
+                            added.filter(e -> view.types().contains(e.type()));
+                    if (!touching.isEmpty())
+                        view.added(touching);
+                }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (stored.isFailure()) {
+            Set<EntityType> written = added.map(Entity::type).toSet();
+            lock.writeLock().lock();
+            try {
+                for (View view : views.values())
+                    if (view.types().exists(written::contains))
+                        view.reset();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return stored;
+    }
+
+    @Override
+    public void createIndexes(List<IndexSpec> indexes) {
+        repo.createIndexes(indexes);
+    }
+
+    @Override
+    public boolean supports(Query q) {
+        return views.containsKey(q) || repo.supports(q);
+    }
+
+    @Override
+    public Try<List<List<Object>>> select(Query q) {
+        View view = views.get(q);
+        return view == null ? repo.select(q) : Try.of(view::rows);
+    }
+
+    @Override
+    public Try<List<List<List<Object>>>> selectAll(List<Query> qs) {
+        return PartialSelects.selectAll(
+                qs,
+                q -> Option.of(views.get(q)).map(View::rows),
+                repo::selectAll);
+    }
+
+    @Override
+    public Try<Stream<List<Object>>> selectStream(Query q) {
+        View view = views.get(q);
+        return view == null
+                ? repo.selectStream(q)
+                : Try.of(() -> view.rows().toJavaStream());
+    }
+
+    @Override
+    public Try<ColumnarResult> selectColumnar(Query q) {
+        View view = views.get(q);
+        return view == null
+                ? repo.selectColumnar(q)
+                : Try.of(() -> ColumnarResult.ofRows(
+                        q.select().map(ColumnarResult::columnType),
+                        view.rows()));
+    }
+
+    /**
+     * Group-by over a single entity type, without filters or paging,
+     * selecting and ordering by group-by attributes and aggregating
+     * attributes of that type, summing and averaging only Int ones.
+     */
+    static boolean isIncremental(Query q) {
+        EntityType type = q.from().et();
+        return q.joins().isEmpty() &&
+                q.where().isEmpty() &&
+                q.having().isEmpty() &&
+                q.limit().isEmpty() &&
+                q.offset() == 0 &&
+                !q.groupBy().isEmpty() &&
+                q.orderBy().forAll(o -> q.groupBy().contains(o.t().attr())) &&
+                q.select().forAll(term -> switch (term) {
+                    case AttrSelectTerm at -> q.groupBy().contains(at.attr());
+                    case Aggregation a -> type.attrs().contains(a.t().attr()) &&
+                            (a.t().attr().type() == AttrType.Int ||
+                                    a.at() == AggrType.MIN ||
+                                    a.at() == AggrType.MAX ||
+                                    a.at() == AggrType.COUNT);
+                });
+    }
+
+    private abstract class View {
+        final Query q;
+        private List<List<Object>> rows;
+
+        View(Query q) {
+            this.q = q;
+        }
+
+        Set<EntityType> types() {
+            return HashSet.of(q.from().et())
+                    .addAll(q.joins().map(j -> j.from().et()));
+        }
+
+        synchronized List<List<Object>> rows() {
+            if (rows == null)
+                rows = compute();
+            return rows;
+        }
+
+        synchronized void invalidate() {
+            rows = null;
+        }
+
+        abstract List<List<Object>> compute();
+
+        abstract void reset();
+
+        abstract void clear();
+
+        abstract void added(List<Entity> es);
+    }
+
+    /**
+     * Re-runs the query on the underlying repository when read after a
+     * write to any entity type it reads from.
+     */
+    private class Recomputed
+            extends View {
+        Recomputed(Query q) {
+            super(q);
+        }
+
+        @Override
+        List<List<Object>> compute() {
+            return repo.select(q).get();
+        }
+
+        @Override
+        void reset() {
+            invalidate();
+        }
+
+        @Override
+        void clear() {
+            invalidate();
+        }
+
+        @Override
+        void added(List<Entity> es) {
+            invalidate();
+        }
+    }
+
+    private class Incremental
+            extends View {
+        private final List<Aggregation> aggregations;
+        private final Map<List<Object>, Accumulator[]> groups =
+                new LinkedHashMap<>();
+
+        Incremental(Query q) {
+            super(q);
+            this.aggregations = q.select()
+                    .filter(s -> s instanceof Aggregation)
+                    .map(s -> (Aggregation) s)
+                    .distinct();
+        }
+
+        @Override
+        synchronized List<List<Object>> compute() {
+            java.util.List<List<Object>> keys = new ArrayList<>(groups.keySet());
+            if (!q.orderBy().isEmpty())
+                keys.sort(order());
+            return List.ofAll(keys).map(key -> q.select().map(term ->
+                    switch (term) {
+                        case AttrSelectTerm at ->
+                                key.get(q.groupBy().indexOf(at.attr()));
+                        case Aggregation a -> groups.get(key)
+                                [aggregations.indexOf(a)].result(a.at());
+                    }));
+        }
+
+        /**
+         * Folds every stored row of the entity type in again, streaming
+         * only the group-by and aggregated attributes.
+         */
+        @Override
+        synchronized void reset() {
+            List<Attr> attrs = q.groupBy()
+                    .appendAll(aggregations.map(a -> a.t().attr()))
+                    .distinct();
+            groups.clear();
+            try (Stream<List<Object>> stored = repo.selectStream(new Query(
+                    attrs.map(AttrSelectTerm::new),
+                    q.from(),
+                    List.empty(),
+                    List.empty(),
+                    List.empty(),
+                    List.empty(),
+                    List.empty(),
+                    Option.none(),
+                    0)).get()) {
+                stored.forEach(row -> add(attr -> row.get(attrs.indexOf(attr))));
+            }
+            invalidate();
+        }
+
+        @Override
+        synchronized void clear() {
+            groups.clear();
+            invalidate();
+        }
+
+        @Override
+        synchronized void added(List<Entity> es) {
+            for (Entity e : es)
+                add(attr -> e.attrs()
+                        .find(v -> v.attr().equals(attr))
+                        .map(AttrValue::value)
+                        .getOrNull());
+            invalidate();
+        }
+
+        private void add(Function<Attr, Object> values) {
+            Accumulator[] accs = groups.computeIfAbsent(
+                    q.groupBy().map(values),
+                    key -> aggregations
+                            .map(a -> new Accumulator())
+                            .toJavaArray(Accumulator[]::new));
+            for (int i = 0; i < accs.length; i++)
+                accs[i].add(values.apply(aggregations.get(i).t().attr()));
+        }
+
+        /** Nulls first ascending and last descending, like the backends. */
+        private Comparator<List<Object>> order() {
+            Comparator<List<Object>> order = (a, b) -> 0;
+            for (OrderBy o : q.orderBy()) {
+                int column = q.groupBy().indexOf(o.t().attr());
+                Comparator<List<Object>> byColumn = Comparator.comparing(
+                        key -> key.get(column),
+                        Comparator.nullsFirst(VectorFilter::compare));
+                order = order.thenComparing(o.mode() == OrderByMode.DESC
+                        ? byColumn.reversed()
+                        : byColumn);
+            }
+            return order;
+        }
+    }
+
+    /**
+     * Non-null count, int sum and extremes of the values added to one
+     * group, read back with the types the backends return.
+     */
+    private static final class Accumulator {
+        private long count;
+        private long sum;
+        private Object min;
+        private Object max;
+
+        void add(Object value) {
+            if (value == null)
+                return;
+            count++;
+            if (value instanceof Integer i)
+                sum += i;
+            if (min == null || VectorFilter.compare(value, min) < 0)
+                min = value;
+            if (max == null || VectorFilter.compare(value, max) > 0)
+                max = value;
+        }
+
+        Object result(AggrType type) {
+            if (type == AggrType.COUNT)
+                return (int) count;
+            if (count == 0)
+                return null;
+            return switch (type) {
+                case SUM -> (int) sum;
+                case AVG -> (int) (sum / count);
+                default -> type == AggrType.MIN ? min : max;
+            };
+        }
+    }
+}
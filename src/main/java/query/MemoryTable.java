@@ -0,0 +1,76 @@
+package query;
+
+import io.vavr.collection.List;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rows of one {@link EntityType} in {@link InMemoryRepo}, stored as one
+ * {@link ColumnStore} per attribute; row numbers are insertion order.
+ */
+final class MemoryTable {
+    private final EntityType type;
+    private final Map<Attr, ColumnStore> columns = new LinkedHashMap<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int size;
+
+    MemoryTable(EntityType type) {
+        this.type = type;
+        for (Attr attr : type.attrs())
+            columns.put(attr, ColumnStore.of(attr.type()));
+    }
+
+    EntityType type() {
+        return type;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(Attr attr) {
+        return columns.containsKey(attr);
+    }
+
+    ColumnStore column(Attr attr) {
+        ColumnStore column = columns.get(attr);
+        if (column == null)
+            throw new IllegalArgumentException(
+                    attr.name() + " is not an attribute of " + type.name());
+        return column;
+    }
+
+    boolean containsId(String id) {
+        return ids.containsKey(id);
+    }
+
+    void append(Entity e) {
+        Map<Attr, Object> values = new HashMap<>();
+        for (AttrValue v : e.attrs())
+            values.putIfAbsent(v.attr(), v.value());
+        ids.put(e.id(), size);
+        columns.forEach((attr, column) ->
+                column.append(coerce(attr, values.get(attr))));
+        size++;
+    }
+
+    /** Appends a row without an id, values in attribute order. */
+    void append(List<Object> row) {
+        row.zip(columns.entrySet()).forEach(t ->
+                t._2.getValue().append(coerce(t._2.getKey(), t._1)));
+        size++;
+    }
+
+    private static Object coerce(Attr attr, Object value) {
+        if (value == null)
+            return null;
+        return switch (attr.type()) {
+            case Int -> value instanceof Number n
+                    ? n.intValue()
+                    : Integer.parseInt(value.toString());
+            case Str -> value.toString();
+        };
+    }
+}
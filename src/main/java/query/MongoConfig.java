@@ -0,0 +1,80 @@
+package query;
+
+import com.mongodb.WriteConcern;
+import io.vavr.collection.List;
+
+public record MongoConfig(
+        int batchSize,
+        WriteConcern writeConcern,
+        boolean ordered,
+        int cursorBatchSize,
+        QueryListener listener,
+        List<IndexSpec> indexes,
+        int maxFacets
+) {
+    public MongoConfig {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be positive");
+        if (cursorBatchSize < 0)
+            throw new IllegalArgumentException(
+                    "cursorBatchSize must not be negative");
+        if (maxFacets < 1)
+            throw new IllegalArgumentException("maxFacets must be positive");
+    }
+
+    public static MongoConfig defaults() {
+        return new MongoConfig(
+                1000, WriteConcern.ACKNOWLEDGED, false, 1000,
+                QueryListener.NONE, List.empty(), 16);
+    }
+
+    public MongoConfig withBatchSize(int batchSize) {
+        return new MongoConfig(
+                batchSize, writeConcern, ordered, cursorBatchSize, listener,
+                indexes, maxFacets);
+    }
+
+    public MongoConfig withWriteConcern(WriteConcern writeConcern) {
+        return new MongoConfig(
+                batchSize, writeConcern, ordered, cursorBatchSize, listener,
+                indexes, maxFacets);
+    }
+
+    public MongoConfig withOrdered(boolean ordered) {
+        return new MongoConfig(
+                batchSize, writeConcern, ordered, cursorBatchSize, listener,
+                indexes, maxFacets);
+    }
+
+    public MongoConfig withCursorBatchSize(int cursorBatchSize) {
+        return new MongoConfig(
+                batchSize, writeConcern, ordered, cursorBatchSize, listener,
+                indexes, maxFacets);
+    }
+
+    public MongoConfig withListener(QueryListener listener) {
+        return new MongoConfig(
+                batchSize, writeConcern, ordered, cursorBatchSize, listener,
+                indexes, maxFacets);
+    }
+
+    /**
+     * Secondary indexes created by {@link MongoRepo#init} on the collections
+     * of their entity types.
+     */
+    public MongoConfig withIndexes(List<IndexSpec> indexes) {
+        return new MongoConfig(
+                batchSize, writeConcern, ordered, cursorBatchSize, listener,
+                indexes, maxFacets);
+    }
+
+    /**
+     * Most queries {@link MongoRepo#selectAll} runs as facets of one
+     * aggregation; more queries on a collection take several.
+     */
+    public MongoConfig withMaxFacets(int maxFacets) {
+        return new MongoConfig(
+                batchSize, writeConcern, ordered, cursorBatchSize, listener,
+                indexes, maxFacets);
+    }
+}
@@ -1,11 +1,16 @@
 package query;
 
-import com.mongodb.client.AggregateIterable;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.MongoIterable;
 import com.mongodb.client.model.BsonField;
-import io.vavr.Tuple;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Variable;
 import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.control.Option;
@@ -14,9 +19,15 @@ import org.bson.BsonDocument;
 import org.bson.BsonString;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import query.QueryPlan.JoinPlan;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.mongodb.client.model.Accumulators.*;
 import static com.mongodb.client.model.Aggregates.*;
@@ -28,10 +39,18 @@ import static com.mongodb.client.model.Sorts.*;
 public class MongoRepo
         implements Repository
 {
+    private static final int BSON_OBJECT_TOO_LARGE = 10334;
+
     private final MongoDatabase db;
+    private final MongoConfig config;
 
     public MongoRepo(MongoDatabase db) {
+        this(db, MongoConfig.defaults());
+    }
+
+    public MongoRepo(MongoDatabase db, MongoConfig config) {
         this.db = db;
+        this.config = config;
     }
 
     @Override
@@ -39,35 +58,88 @@ public class MongoRepo
         List.of(types)
                 .map(t -> db.getCollection(t.name()))
                 .forEach(MongoCollection::drop);
+        createIndexes(config.indexes()
+                .filter(i -> List.of(types).contains(i.type())));
+    }
+
+    @Override
+    public void createIndexes(List<IndexSpec> indexes) {
+        for (IndexSpec index : indexes)
+            db.getCollection(index.type().name()).createIndex(
+                    Indexes.ascending(index.attrs().map(Attr::name).toJavaList()),
+                    new IndexOptions().name(index.name()));
     }
 
     @Override
     public void addEntities(Entity... es) {
-        List.of(es).forEach(e -> {
-            MongoCollection<Document> coll =
-                    db.getCollection(e.type().name());
-            coll.insertOne(toDoc(e));
-        });
+        Option<InsertChunk> failed = bulkInsert(es).find(InsertChunk::failed);
+        if (failed.isDefined())
+            throw failed.get().error().get();
+    }
+
+    public List<InsertChunk> bulkInsert(Entity... es) {
+        return List.of(es)
+                .groupBy(e -> e.type().name())
+                .toList()
+                .flatMap(t -> insertChunks(t._1, t._2));
+    }
+
+    private List<InsertChunk> insertChunks(String name, List<Entity> es) {
+        MongoCollection<Document> coll = db.getCollection(name)
+                .withWriteConcern(config.writeConcern());
+        InsertManyOptions options =
+                new InsertManyOptions().ordered(config.ordered());
+
+        java.util.List<InsertChunk> chunks = new ArrayList<>();
+        int offset = 0;
+        for (List<Entity> chunk : es.grouped(config.batchSize())) {
+            try {
+                coll.insertMany(chunk.map(this::toDoc).toJavaList(), options);
+                chunks.add(new InsertChunk(
+                        name, offset, chunk.size(), Option.none()));
+            } catch (MongoBulkWriteException e) {
+                chunks.add(new InsertChunk(
+                        name, offset, chunk.size(), Option.some(e)));
+                if (config.ordered())
+                    break;
+            }
+            offset += chunk.size();
+        }
+        return List.ofAll(chunks);
     }
 
     private Document toDoc(Entity e) {
         Document doc = new Document("_id", e.id());
-        e.attrs()
-                .forEach(a -> {
-                    Option<Object> value = attrValue(e, a.attr());
-                    if (value.isDefined())
-                        doc.append(a.attr().name(), value.get());
-                });
+        for (AttrValue a : e.attrs())
+            doc.putIfAbsent(a.attr().name(), a.value());
         return doc;
     }
 
-    private Option<Object> attrValue(
-            Entity e,
-            Attr attr
-    ) {
-        return e.attrs()
-                .find(av -> av.attr().equals(attr))
-                .map(AttrValue::value);
+    /**
+     * Joins on anything but a single attribute equality and LIKE
+     * predicates have no pipeline translation.
+     */
+    @Override
+    public boolean supports(Query q) {
+        return q.joins().forAll(j -> j.on().size() == 1 &&
+                        j.on().get(0) instanceof BinOp on &&
+                        on.op() == Op.EQ &&
+                        on.right() instanceof AttrClauseTerm) &&
+                q.joins().flatMap(Join::on)
+                        .appendAll(q.where())
+                        .appendAll(q.having())
+                        .forAll(p -> !mentionsLike(p));
+    }
+
+    private static boolean mentionsLike(Predicate p) {
+        return switch (p) {
+            case BinOp bo -> bo.op() == Op.LIKE;
+            case And a -> mentionsLike(a.left()) || mentionsLike(a.right());
+            case Or o -> mentionsLike(o.left()) || mentionsLike(o.right());
+            case Not n -> mentionsLike(n.predicate());
+            case In ignored -> false;
+            case Const ignored -> false;
+        };
     }
 
     @Override
@@ -75,21 +147,180 @@ public class MongoRepo
         return Try.of(() -> query(q));
     }
 
-    private List<List<Object>> query(Query q) {
+    /**
+     * Queries on the same collection run, up to
+     * {@link MongoConfig#maxFacets()} at a time, as one aggregation whose
+     * {@code $facet} stage holds each query's pipeline, and the facets are
+     * read back per query. Facets cannot use indexes, so a {@code $match}
+     * on the union of the queries' own filters goes first. Should the
+     * combined result exceed the 16 MB document limit, the queries run one
+     * by one instead. The listener sees one trace per aggregation, under
+     * the first query it holds.
+     */
+    @Override
+    public Try<List<List<List<Object>>>> selectAll(List<Query> qs) {
+        return Try.of(() -> queryAll(qs));
+    }
+
+    @Override
+    public Try<Stream<List<Object>>> selectStream(Query q) {
+        return Try.of(() -> stream(q));
+    }
+
+    private QueryTracer tracer(Query q) {
+        return new QueryTracer(config.listener(), "mongo", q);
+    }
+
+    private List<List<Object>> query(Query q) throws Throwable {
+        QueryTracer t = tracer(q);
+        return t.trace(() -> {
+            try (MongoCursor<Document> cursor = open(q, t)) {
+                ArrayList<List<Object>> l = new ArrayList<>();
+                while (cursor.hasNext())
+                    l.add(t.row(toRow(q, cursor.next())));
+                return List.ofAll(l);
+            }
+        });
+    }
+
+    private List<List<List<Object>>> queryAll(List<Query> qs) throws Throwable {
+        java.util.List<List<List<Object>>> results = new ArrayList<>();
+        qs.forEach(q -> results.add(List.empty()));
+
+        for (List<Tuple2<Query, Integer>> group : qs
+                .zipWithIndex()
+                .groupBy(q -> q._1.from().et().name())
+                .values()) {
+            for (List<Tuple2<Query, Integer>> chunk
+                    : group.grouped(config.maxFacets())) {
+                if (chunk.size() == 1)
+                    results.set(chunk.head()._2, query(chunk.head()._1));
+                else
+                    queryFacetedOrEach(chunk, results);
+            }
+        }
+        return List.ofAll(results);
+    }
+
+    private void queryFacetedOrEach(
+            List<Tuple2<Query, Integer>> group,
+            java.util.List<List<List<Object>>> results
+    ) throws Throwable {
+        try {
+            queryFaceted(group, results);
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != BSON_OBJECT_TOO_LARGE)
+                throw e;
+            for (Tuple2<Query, Integer> q : group)
+                results.set(q._2, query(q._1));
+        }
+    }
+
+    private void queryFaceted(
+            List<Tuple2<Query, Integer>> group,
+            java.util.List<List<List<Object>>> results
+    ) throws Throwable {
+        Query head = group.head()._1;
+        QueryTracer t = tracer(head);
+        t.trace(() -> {
+            List<List<Predicate>> filters = group.map(q -> QueryOptimizer
+                    .plan(PredicateNormalizer.normalize(q._1))
+                    .base());
+            List<Bson> prefilter = filters.exists(List::isEmpty)
+                    ? List.empty()
+                    : List.of(match(or(filters
+                            .map(this::toFiltersDoc)
+                            .toJavaList())));
+            List<Bson> pipeline = prefilter.append(facet(group
+                    .map(q -> new Facet("q" + q._2, pipeline(q._1).toJavaList()))
+                    .toJavaList()));
+            t.statement(() -> toJson(pipeline));
+            t.mark(QueryPhase.TRANSLATE);
+
+            MongoCollection<Document> coll =
+                    db.getCollection(head.from().et().name());
+            Document facets = coll.aggregate(pipeline.toJavaList()).first();
+            t.mark(QueryPhase.EXECUTE);
+            for (Tuple2<Query, Integer> q : group)
+                results.set(q._2, List.ofAll(
+                                facets.getList("q" + q._2, Document.class))
+                        .map(d -> t.row(toRow(q._1, d))));
+            return null;
+        });
+    }
+
+    private Stream<List<Object>> stream(Query q) {
+        QueryTracer t = tracer(q);
+        MongoCursor<Document> cursor;
+        try {
+            cursor = open(q, t);
+        } catch (RuntimeException e) {
+            t.finish(e);
+            throw e;
+        }
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(
+                                cursor, Spliterator.ORDERED),
+                        false)
+                .map(d -> t.row(toRow(q, d)))
+                .onClose(() -> {
+                    try {
+                        cursor.close();
+                    } finally {
+                        t.finish(null);
+                    }
+                });
+    }
+
+    private MongoCursor<Document> open(Query q, QueryTracer t) {
+        List<Bson> pipeline = pipeline(q);
+        t.statement(() -> toJson(pipeline));
+        t.mark(QueryPhase.TRANSLATE);
+
         MongoCollection<Document> coll =
                 db.getCollection(q.from().et().name());
+        MongoCursor<Document> cursor = coll
+                .aggregate(pipeline.toJavaList())
+                .batchSize(config.cursorBatchSize())
+                .cursor();
+        Cancellation.register(cursor::close);
+        t.mark(QueryPhase.EXECUTE);
+        return cursor;
+    }
 
+    private String toJson(List<Bson> pipeline) {
+        return pipeline
+                .map(stage -> stage.toBsonDocument(
+                                BsonDocument.class,
+                                db.getCodecRegistry())
+                        .toJson())
+                .mkString("[", ", ", "]");
+    }
+
+    /**
+     * Aggregation pipeline run against the collection of {@code q}'s from.
+     */
+    public List<Bson> pipeline(Query query) {
         java.util.List<Bson> pipeline = new ArrayList<>();
+        Query q = PredicateNormalizer.normalize(query);
+        QueryPlan plan = QueryOptimizer.plan(q);
 
-        if (!q.where().isEmpty())
-            pipeline.add(match(toFiltersDoc(q.where())));
+        if (!plan.base().isEmpty())
+            pipeline.add(match(toFiltersDoc(plan.base())));
 
-        if (!q.joins().isEmpty())
-            pipeline.addAll(toJoinDocs(q).toJavaList());
+        if (!plan.joins().isEmpty()) {
+            pipeline.add(project(toFieldsDoc(plan.baseFields())));
+            pipeline.addAll(toJoinDocs(q.from(), plan.joins()).toJavaList());
+        }
 
         if (!q.groupBy().isEmpty())
             pipeline.addAll(toGroupByDocs(q).toJavaList());
 
+        if (!q.having().isEmpty())
+            pipeline.add(match(toFiltersDoc(
+                    q.having(),
+                    a -> toFieldName(Having.resolve(q, a)))));
+
         Bson include = include(q.select()
                 .map(this::toFieldName)
                 .toJavaList());
@@ -99,17 +330,20 @@ public class MongoRepo
 
         if (!q.orderBy().isEmpty())
             pipeline.add(sort(toSortDoc(q.orderBy())));
+        if (q.offset() > 0)
+            pipeline.add(skip(q.offset()));
+        if (q.limit().contains(0))
+            pipeline.add(match(expr(false)));
+        else
+            q.limit().forEach(l -> pipeline.add(limit(l)));
+
+        return List.ofAll(pipeline);
+    }
 
-        AggregateIterable<Document> find = coll.aggregate(pipeline);
-
-        MongoIterable<List<Object>> map =
-                find.map(d -> q.select()
-                        .map(this::toFieldName)
-                        .map(d::get));
-
-        ArrayList<List<Object>> l = new ArrayList<>();
-        map.into(l);
-        return List.ofAll(l);
+    private List<Object> toRow(Query q, Document d) {
+        return q.select()
+                .map(this::toFieldName)
+                .map(d::get);
     }
 
     private String toFieldName(SelectTerm at) {
@@ -123,30 +357,40 @@ public class MongoRepo
         };
     }
 
-    private List<Bson> toJoinDocs(Query q) {
-        return q.joins()
-                .flatMap(join -> toJoinDoc(q.from(), join));
+    private List<Bson> toJoinDocs(From from, List<JoinPlan> joins) {
+        return joins.flatMap(join -> toJoinDoc(from, join));
     }
 
     private List<Bson> toJoinDoc(
             From from,
-            Join join
+            JoinPlan plan
     ) {
+        Join join = plan.join();
         String joinedColl = join.from().et().name();
         String joinName = from.et().name() + "_" + joinedColl;
 
         if (join.on().size() != 1
                 || !(join.on().get(0) instanceof BinOp on)
-                || !(((BinOp) join.on().get(0)).right()
-                instanceof AttrClauseTerm attrTerm))
+                || on.op() != Op.EQ
+                || !(on.right() instanceof AttrClauseTerm attrTerm))
             throw new UnsupportedOperationException(
-                    "only simple joins supported");
+                    "only simple equi-joins supported");
 
         String local = on.left().attr().name();
         String foreign = attrTerm.attr().name();
 
-        return List.of(
-                lookup(joinedColl, local, foreign, joinName),
+        java.util.List<Bson> lookupPipeline = new ArrayList<>();
+        lookupPipeline.add(match(expr(new Document("$eq",
+                Arrays.asList("$" + foreign, "$$local")))));
+        if (!plan.pushed().isEmpty())
+            lookupPipeline.add(match(toFiltersDoc(plan.pushed())));
+        lookupPipeline.add(project(toFieldsDoc(plan.fields())));
+
+        List<Bson> stages = List.of(
+                lookup(joinedColl,
+                        java.util.List.of(new Variable<>("local", "$" + local)),
+                        lookupPipeline,
+                        joinName),
                 match(ne(joinName, java.util.List.of())),
                 new Document(
                         "$addFields",
@@ -158,40 +402,58 @@ public class MongoRepo
                                 Arrays.asList("$" + joinName, "$$ROOT"))),
                 new Document("$project", new Document(joinName, 0))
         );
+        return plan.after().isEmpty()
+                ? stages
+                : stages.append(match(toFiltersDoc(plan.after())));
+    }
+
+    private Bson toFieldsDoc(List<Attr> attrs) {
+        return fields(include(attrs.map(Attr::name).toJavaList()), excludeId());
     }
 
     private List<Bson> toGroupByDocs(Query q) {
-        List<Tuple2<Aggregation, Attr>> groups = q.groupBy()
-                .flatMap(gb -> q.select()
-                        .filter(s -> s instanceof Aggregation)
-                        .map(s -> (Aggregation) s)
-                        .map(a -> Tuple.of(a, gb)));
-        return groups
-                .flatMap(this::toGroupByDoc);
-    }
-
-    private List<Bson> toGroupByDoc(Tuple2<Aggregation, Attr> g) {
-        String field = g._1.t().attr().name();
-        String group = g._2.name();
-        String mode = g._1.at().name().toLowerCase();
-
-        BsonField aggregationField = switch (g._1.at()) {
-            case SUM -> sum(mode + "_" + field, "$" + field);
-            case MAX -> max(mode + "_" + field, "$" + field);
-            case MIN -> min(mode + "_" + field, "$" + field);
-            case AVG -> avg(mode + "_" + field, "$" + field);
-            case COUNT -> sum(mode + "_" + field, 1);
-        };
+        Document id = new Document();
+        q.groupBy().forEach(a -> id.append(a.name(), "$" + a.name()));
+
+        List<BsonField> accumulators = q.select()
+                .filter(s -> s instanceof Aggregation)
+                .map(s -> (Aggregation) s)
+                .distinct()
+                .map(this::toAccumulator);
+
+        List<Bson> keys = q.groupBy()
+                .map(a -> new BsonDocument(
+                        a.name(),
+                        new BsonString("$_id." + a.name())));
 
         return List.of(
-                group("$" + group, aggregationField),
-                project(fields(
-                        include(mode + "_" + field),
-                        new BsonDocument(group, new BsonString("$_id")),
-                        excludeId()))
+                group(id, accumulators.toJavaList()),
+                project(fields(List.<Bson>of(include(accumulators
+                                .map(BsonField::getName)
+                                .toJavaList()))
+                        .appendAll(keys)
+                        .append(excludeId())
+                        .toJavaList()))
         );
     }
 
+    private BsonField toAccumulator(Aggregation a) {
+        String name = toFieldName(a);
+        String field = "$" + a.t().attr().name();
+
+        return switch (a.at()) {
+            case SUM -> sum(name, field);
+            case MAX -> max(name, field);
+            case MIN -> min(name, field);
+            case AVG -> avg(name, field);
+            // like SQL count(attr), skip documents where attr is null
+            case COUNT -> sum(name, new Document("$cond", Arrays.asList(
+                    new Document("$gt", Arrays.asList(field, null)),
+                    1,
+                    0)));
+        };
+    }
+
     private Bson toSortDoc(List<OrderBy> orderBy) {
         return orderBy(orderBy.map(ob -> switch (ob.mode()) {
                     case ASC -> ascending(ob.t().attr().name());
@@ -200,22 +462,41 @@ public class MongoRepo
     }
 
     private Bson toFiltersDoc(List<Predicate> where) {
+        return toFiltersDoc(where, Attr::name);
+    }
+
+    private Bson toFiltersDoc(
+            List<Predicate> where,
+            Function<Attr, String> field
+    ) {
         return !where.isEmpty()
-                ? and(where.map(this::toFilterDoc))
+                ? and(where.map(p -> toFilterDoc(p, field)))
                 : new Document();
     }
 
-    private Bson toFilterDoc(Predicate p) {
+    private Bson toFilterDoc(Predicate p, Function<Attr, String> field) {
         return switch (p) {
+            case BinOp bo && bo.right() instanceof AttrClauseTerm r ->
+                    expr(new Document(switch (bo.op()) {
+                        case EQ -> "$eq";
+                        case LT -> "$lt";
+                        case GT -> "$gt";
+                        case LIKE -> throw new UnsupportedOperationException("like");
+                    }, Arrays.asList(
+                            "$" + field.apply(bo.left().attr()),
+                            "$" + field.apply(r.attr()))));
             case BinOp bo -> switch (bo.op()) {
-                case EQ -> eq(bo.left().attr().name(), toTermDoc(bo.right()));
-                case LT -> lt(bo.left().attr().name(), toTermDoc(bo.right()));
-                case GT -> gt(bo.left().attr().name(), toTermDoc(bo.right()));
+                case EQ -> eq(field.apply(bo.left().attr()), toTermDoc(bo.right()));
+                case LT -> lt(field.apply(bo.left().attr()), toTermDoc(bo.right()));
+                case GT -> gt(field.apply(bo.left().attr()), toTermDoc(bo.right()));
                 case LIKE -> throw new UnsupportedOperationException("like");
             };
-            case And a -> and(toFilterDoc(a.left()), toFilterDoc(a.right()));
-            case Or o -> or(toFilterDoc(o.left()), toFilterDoc(o.right()));
-            case Not n -> not(toFilterDoc(n.predicate()));
+            case And a -> and(toFilterDoc(a.left(), field), toFilterDoc(a.right(), field));
+            case Or o -> or(toFilterDoc(o.left(), field), toFilterDoc(o.right(), field));
+            case Not n -> not(toFilterDoc(n.predicate(), field));
+            case In i -> in(field.apply(i.left().attr()),
+                    i.values().map(this::toTermDoc).toJavaList());
+            case Const c -> expr(c.value());
         };
     }
 
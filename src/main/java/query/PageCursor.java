@@ -0,0 +1,113 @@
+package query;
+
+import io.vavr.collection.List;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position after the last row of a page, as the values of that row's
+ * {@link Query#orderBy()} keys. {@link QueryBuilder#after} turns it into a
+ * range predicate over the keys, so every page is found by seeking to its
+ * start, however deep it is, instead of skipping an offset. The order-by
+ * keys must identify a row uniquely, or rows tied with the cursor are
+ * skipped.
+ * <p>
+ * Nulls sort first in ascending and last in descending order, as they do
+ * on every backend.
+ */
+public record PageCursor(List<Object> keys) {
+
+    /**
+     * Cursor after {@code row}, a row returned for {@code q}; every
+     * order-by attribute must be in the select list.
+     */
+    public static PageCursor of(Query q, List<Object> row) {
+        return new PageCursor(q.orderBy().map(ob -> {
+            int column = q.select().indexOf(ob.t());
+            if (column < 0)
+                throw new IllegalArgumentException(
+                        "order-by attribute " + ob.t().attr().name() +
+                                " is not selected");
+            return row.get(column);
+        }));
+    }
+
+    /** Opaque, URL-safe form of the cursor; see {@link #fromToken}. */
+    public String token() {
+        StringBuilder s = new StringBuilder();
+        for (Object key : keys) {
+            switch (key) {
+                case null -> s.append('n');
+                case Integer i -> s.append('i').append(i).append(';');
+                case String str -> s.append('s').append(str.length()).append(':').append(str);
+                default -> throw new IllegalArgumentException(
+                        "cannot encode key " + key + " in a cursor");
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(s.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static PageCursor fromToken(String token) {
+        String s = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        List<Object> keys = List.empty();
+        int at = 0;
+        while (at < s.length()) {
+            char tag = s.charAt(at++);
+            switch (tag) {
+                case 'n' -> keys = keys.append(null);
+                case 'i' -> {
+                    int end = s.indexOf(';', at);
+                    keys = keys.append(Integer.parseInt(s.substring(at, end)));
+                    at = end + 1;
+                }
+                case 's' -> {
+                    int colon = s.indexOf(':', at);
+                    int length = Integer.parseInt(s.substring(at, colon));
+                    keys = keys.append(s.substring(colon + 1, colon + 1 + length));
+                    at = colon + 1 + length;
+                }
+                default -> throw new IllegalArgumentException("malformed cursor " + token);
+            }
+        }
+        return new PageCursor(keys);
+    }
+
+    /**
+     * Rows after the cursor in {@code orderBy} order: for some key, every
+     * earlier key equals the cursor and that key is past it.
+     */
+    Predicate seek(List<OrderBy> orderBy) {
+        if (orderBy.isEmpty())
+            throw new IllegalArgumentException("paging by cursor needs an order by");
+        if (orderBy.size() != keys.size())
+            throw new IllegalArgumentException(
+                    "cursor has " + keys.size() + " keys for " +
+                            orderBy.size() + " order-by terms");
+        int last = orderBy.size() - 1;
+        Predicate seek = past(orderBy.get(last), keys.get(last));
+        for (int i = last - 1; i >= 0; i--)
+            seek = new Or(
+                    past(orderBy.get(i), keys.get(i)),
+                    new And(equal(orderBy.get(i), keys.get(i)), seek));
+        return seek;
+    }
+
+    private static Predicate past(OrderBy ob, Object key) {
+        AttrClauseTerm attr = new AttrClauseTerm(ob.t().attr());
+        Predicate isNull = new BinOp(attr, Op.EQ, new Null());
+        boolean asc = ob.mode() == OrderByMode.ASC;
+        if (key == null)
+            return asc ? new Not(isNull) : new Const(false);
+        Predicate beyond = new BinOp(attr, asc ? Op.GT : Op.LT, new Value(key));
+        return asc ? beyond : new Or(beyond, isNull);
+    }
+
+    private static Predicate equal(OrderBy ob, Object key) {
+        AttrClauseTerm attr = new AttrClauseTerm(ob.t().attr());
+        return key == null
+                ? new BinOp(attr, Op.EQ, new Null())
+                : new BinOp(attr, Op.EQ, new Value(key));
+    }
+}
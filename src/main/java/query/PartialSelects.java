@@ -0,0 +1,35 @@
+package query;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * {@link Repository#selectAll} for decorators that can answer some queries
+ * themselves: the rest go to the underlying repository in one call, so it
+ * can still merge them into one round trip.
+ */
+final class PartialSelects {
+    private PartialSelects() {}
+
+    static Try<List<List<List<Object>>>> selectAll(
+            List<Query> qs,
+            Function<Query, Option<List<List<Object>>>> known,
+            Function<List<Query>, Try<List<List<List<Object>>>>> rest
+    ) {
+        return Try.of(() -> qs.map(known)).flatMap(hits -> {
+            List<Query> misses = qs.zip(hits)
+                    .filter(t -> t._2.isEmpty())
+                    .map(t -> t._1);
+            if (misses.isEmpty())
+                return Try.success(hits.map(Option::get));
+            return rest.apply(misses).map(rows -> {
+                Iterator<List<List<Object>>> it = rows.iterator();
+                return hits.map(h -> h.getOrElse(it::next));
+            });
+        });
+    }
+}
@@ -0,0 +1,43 @@
+package query;
+
+import java.time.Duration;
+
+public record PoolConfig(
+        int maxSize,
+        Duration acquireTimeout,
+        Duration idleTimeout,
+        int validationTimeoutSeconds
+) {
+    public PoolConfig {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive");
+    }
+
+    public static PoolConfig defaults() {
+        return new PoolConfig(
+                10,
+                Duration.ofSeconds(30),
+                Duration.ofMinutes(10),
+                1);
+    }
+
+    public PoolConfig withMaxSize(int maxSize) {
+        return new PoolConfig(
+                maxSize, acquireTimeout, idleTimeout, validationTimeoutSeconds);
+    }
+
+    public PoolConfig withAcquireTimeout(Duration acquireTimeout) {
+        return new PoolConfig(
+                maxSize, acquireTimeout, idleTimeout, validationTimeoutSeconds);
+    }
+
+    public PoolConfig withIdleTimeout(Duration idleTimeout) {
+        return new PoolConfig(
+                maxSize, acquireTimeout, idleTimeout, validationTimeoutSeconds);
+    }
+
+    public PoolConfig withValidationTimeoutSeconds(int validationTimeoutSeconds) {
+        return new PoolConfig(
+                maxSize, acquireTimeout, idleTimeout, validationTimeoutSeconds);
+    }
+}
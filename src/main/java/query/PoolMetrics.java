@@ -0,0 +1,3 @@
+package query;
+
+public record PoolMetrics(int active, int idle, int waiting) {}
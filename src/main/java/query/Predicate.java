@@ -1,7 +1,11 @@
 package query;
 
+import io.vavr.collection.List;
+
 public sealed interface Predicate {}
 record BinOp(AttrClauseTerm left, Op op, ClauseTerm right) implements Predicate {}
 record Or(Predicate left, Predicate right) implements Predicate {}
 record And(Predicate left, Predicate right) implements Predicate {}
 record Not(Predicate predicate) implements Predicate {}
+record In(AttrClauseTerm left, List<Value> values) implements Predicate {}
+record Const(boolean value) implements Predicate {}
@@ -0,0 +1,208 @@
+package query;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+/**
+ * Rewrites predicates into a smaller equivalent form before either backend
+ * translates them: negations are pushed down to the comparisons, nested
+ * and/or nodes are flattened, duplicate terms dropped, comparisons that
+ * can never hold folded to false, and or-chains of equalities on one
+ * attribute collapsed into an {@link In} list.
+ * <p>
+ * Folding follows filter semantics: a comparison that is unknown (null)
+ * or false for every row is treated as false, which is sound because after
+ * pushing negations no and/or node is ever negated. A negated comparison
+ * is folded only when it is unknown for every row: {@code not (x < x)}
+ * holds wherever {@code x} is not null.
+ */
+public final class PredicateNormalizer {
+    private static final Const TRUE = new Const(true);
+    private static final Const FALSE = new Const(false);
+
+    private PredicateNormalizer() {}
+
+    public static Query normalize(Query q) {
+        return new Query(
+                q.select(),
+                q.from(),
+                normalize(q.where()),
+                q.joins(),
+                q.groupBy(),
+                normalize(q.having()),
+                q.orderBy(),
+                q.limit(),
+                q.offset());
+    }
+
+    /**
+     * Normalizes a list of implicitly and-ed predicates; an always-true
+     * list becomes empty.
+     */
+    public static List<Predicate> normalize(List<Predicate> conjuncts) {
+        if (conjuncts.isEmpty())
+            return conjuncts;
+        Predicate p = normalize(conjuncts.reduce(And::new));
+        return p.equals(TRUE) ? List.empty() : terms(p, true);
+    }
+
+    public static Predicate normalize(Predicate p) {
+        return simplify(pushNot(p, false));
+    }
+
+    private static Predicate pushNot(Predicate p, boolean negated) {
+        return switch (p) {
+            case Not n -> pushNot(n.predicate(), !negated);
+            case And a -> negated
+                    ? new Or(pushNot(a.left(), true), pushNot(a.right(), true))
+                    : new And(pushNot(a.left(), false), pushNot(a.right(), false));
+            case Or o -> negated
+                    ? new And(pushNot(o.left(), true), pushNot(o.right(), true))
+                    : new Or(pushNot(o.left(), false), pushNot(o.right(), false));
+            case Const c -> negated ? new Const(!c.value()) : c;
+            case BinOp ignored -> negated ? new Not(p) : p;
+            case In ignored -> negated ? new Not(p) : p;
+        };
+    }
+
+    private static Predicate simplify(Predicate p) {
+        return switch (p) {
+            case And a -> simplifyAnd(terms(a, true).map(PredicateNormalizer::simplify));
+            case Or o -> simplifyOr(terms(o, false).map(PredicateNormalizer::simplify));
+            case BinOp b -> neverHolds(b) ? FALSE : b;
+            case Not n -> n.predicate() instanceof BinOp b && alwaysUnknown(b)
+                    ? FALSE
+                    : n;
+            case In in -> in.values().size() == 1
+                    ? new BinOp(in.left(), Op.EQ, in.values().head())
+                    : in;
+            case Const c -> c;
+        };
+    }
+
+    private static Predicate simplifyAnd(List<Predicate> terms) {
+        List<Predicate> flat = terms
+                .flatMap(t -> terms(t, true))
+                .filter(t -> !t.equals(TRUE))
+                .distinct();
+        if (flat.contains(FALSE) || contradicts(flat))
+            return FALSE;
+        return flat.isEmpty() ? TRUE : flat.reduce(And::new);
+    }
+
+    private static Predicate simplifyOr(List<Predicate> terms) {
+        List<Predicate> flat = collapseEqualities(terms
+                .flatMap(t -> terms(t, false))
+                .filter(t -> !t.equals(FALSE))
+                .distinct());
+        if (flat.contains(TRUE))
+            return TRUE;
+        return flat.isEmpty() ? FALSE : flat.reduce(Or::new);
+    }
+
+    private static List<Predicate> terms(Predicate p, boolean and) {
+        return switch (p) {
+            case And a && and -> terms(a.left(), true).appendAll(terms(a.right(), true));
+            case Or o && !and -> terms(o.left(), false).appendAll(terms(o.right(), false));
+            default -> List.of(p);
+        };
+    }
+
+    /**
+     * Unknown for every row, or false for the rows where it is known: an
+     * attribute less/greater than itself.
+     */
+    private static boolean neverHolds(BinOp b) {
+        return alwaysUnknown(b) ||
+                (b.op() == Op.LT || b.op() == Op.GT) && b.right().equals(b.left());
+    }
+
+    /** Comparisons with null other than equality are unknown for every row. */
+    private static boolean alwaysUnknown(BinOp b) {
+        return b.op() != Op.EQ && b.right() instanceof Null;
+    }
+
+    /**
+     * True when the conjuncts contain a term and its negation, or two
+     * equalities of one attribute with provably different values.
+     */
+    private static boolean contradicts(List<Predicate> conjuncts) {
+        if (conjuncts.exists(t -> t instanceof Not n && conjuncts.contains(n.predicate())))
+            return true;
+        return equalities(conjuncts)
+                .groupBy(t -> t.left().attr())
+                .exists(g -> g._2
+                        .map(t -> coerce(g._1, (Value) t.right()))
+                        .distinct()
+                        .size() > 1
+                        && g._2.forAll(t ->
+                        coerce(g._1, (Value) t.right()).isDefined()));
+    }
+
+    private static List<Predicate> collapseEqualities(List<Predicate> disjuncts) {
+        List<Attr> repeated = disjuncts
+                .flatMap(PredicateNormalizer::inAttr)
+                .groupBy(a -> a)
+                .filter(g -> g._2.size() > 1)
+                .keySet()
+                .toList();
+        if (repeated.isEmpty())
+            return disjuncts;
+
+        List<Predicate> result = List.empty();
+        List<Attr> emitted = List.empty();
+        for (Predicate t : disjuncts) {
+            Option<Attr> attr = inAttr(t).filter(repeated::contains);
+            if (attr.isEmpty()) {
+                result = result.append(t);
+            } else if (!emitted.contains(attr.get())) {
+                emitted = emitted.append(attr.get());
+                result = result.append(new In(
+                        new AttrClauseTerm(attr.get()),
+                        disjuncts
+                                .filter(d -> inAttr(d).contains(attr.get()))
+                                .flatMap(PredicateNormalizer::inValues)
+                                .distinct()));
+            }
+        }
+        return result;
+    }
+
+    private static Option<Attr> inAttr(Predicate p) {
+        return switch (p) {
+            case BinOp b && b.op() == Op.EQ && b.right() instanceof Value ->
+                    Option.some(b.left().attr());
+            case In in -> Option.some(in.left().attr());
+            default -> Option.none();
+        };
+    }
+
+    private static List<Value> inValues(Predicate p) {
+        return switch (p) {
+            case BinOp b -> List.of((Value) b.right());
+            case In in -> in.values();
+            default -> List.empty();
+        };
+    }
+
+    private static List<BinOp> equalities(List<Predicate> conjuncts) {
+        return conjuncts
+                .filter(t -> t instanceof BinOp b
+                        && b.op() == Op.EQ
+                        && b.right() instanceof Value)
+                .map(t -> (BinOp) t);
+    }
+
+    static Option<Object> coerce(Attr attr, Value v) {
+        if (v.value() == null)
+            return Option.none();
+        return switch (attr.type()) {
+            case Str -> Option.some(v.value().toString());
+            case Int -> v.value() instanceof Number n
+                    ? Option.some(n.intValue())
+                    : Try.of(() -> (Object) Integer.parseInt(v.value().toString()))
+                    .toOption();
+        };
+    }
+}
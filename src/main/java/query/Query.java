@@ -1,6 +1,7 @@
 package query;
 
 import io.vavr.collection.List;
+import io.vavr.control.Option;
 
 public record Query(
         List<SelectTerm> select,
@@ -9,6 +10,15 @@ public record Query(
         List<Join> joins,
         List<Attr> groupBy,
         List<Predicate> having,
-        List<OrderBy> orderBy
+        List<OrderBy> orderBy,
+        Option<Integer> limit,
+        int offset
 )
-{}
+{
+    public Query {
+        if (limit.exists(l -> l < 0))
+            throw new IllegalArgumentException("limit must not be negative");
+        if (offset < 0)
+            throw new IllegalArgumentException("offset must not be negative");
+    }
+}
@@ -1,6 +1,7 @@
 package query;
 
 import io.vavr.collection.List;
+import io.vavr.control.Option;
 
 import static query.Entities.clauseAttr;
 import static query.Queries.pred;
@@ -11,8 +12,12 @@ public class QueryBuilder
     private From from;
     private List<Predicate> where = List.of();
     private List<Join> joins = List.of();
-    private GroupByBuilder groupBy = new GroupByBuilder(List.of());
+    private List<Attr> groupBy = List.of();
+    private List<Predicate> having = List.of();
     private List<OrderBy> orderBy = List.of();
+    private Option<Integer> limit = Option.none();
+    private int offset;
+    private Option<PageCursor> after = Option.none();
 
     public QueryBuilder(List<SelectTerm> select)
     {
@@ -80,7 +85,25 @@ public class QueryBuilder
 
     public QueryBuilder groupBy(Attr... groupBy)
     {
-        this.groupBy = new GroupByBuilder(List.of(groupBy));
+        this.groupBy = List.of(groupBy);
+        return this;
+    }
+
+    public QueryBuilder having(PredicateBuilder pb)
+    {
+        this.having = List.of(pb.build());
+        return this;
+    }
+
+    public QueryBuilder having(Attr l, Op o, ClauseTerm r)
+    {
+        this.having = List.of(pred(clauseAttr(l), o, r).build());
+        return this;
+    }
+
+    public QueryBuilder andHaving(Attr l, Op o, ClauseTerm r)
+    {
+        this.having = having.append(pred(clauseAttr(l), o, r).build());
         return this;
     }
 
@@ -90,10 +113,41 @@ public class QueryBuilder
         return this;
     }
 
+    public QueryBuilder limit(int limit)
+    {
+        this.limit = Option.some(limit);
+        return this;
+    }
+
+    public QueryBuilder offset(int offset)
+    {
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Starts the results after {@code cursor}, the last row of the previous
+     * page; see {@link PageCursor}.
+     */
+    public QueryBuilder after(PageCursor cursor)
+    {
+        this.after = Option.some(cursor);
+        return this;
+    }
+
+    public QueryBuilder after(String cursorToken)
+    {
+        return after(PageCursor.fromToken(cursorToken));
+    }
+
     public Query build() {
+        List<Predicate> where = after
+                .map(c -> this.where.append(c.seek(orderBy)))
+                .getOrElse(this.where);
         return new Query(
                 select, from, where, joins,
-                groupBy.groupBy(), groupBy.having(), orderBy
+                groupBy, having, orderBy,
+                limit, offset
         );
     }
 }
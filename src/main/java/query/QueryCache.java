@@ -0,0 +1,141 @@
+package query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Memoizes the SQL generated for each query shape (see {@link QueryShapes})
+ * and keeps the statements prepared for it on each physical connection.
+ * Cached statements are owned by the cache: callers close their result sets,
+ * not the statements. Invalidation is lazy: a connection's statements are
+ * closed the next time that connection prepares one, so a result set still
+ * being read on another connection is left alone.
+ */
+public class QueryCache {
+    private final LruCache<Query, String> sql;
+    private final int statementsPerConnection;
+    private final Map<Connection, Statements> statements = new HashMap<>();
+    private long generation;
+    private long statementHits;
+    private long statementMisses;
+    private long statementEvictions;
+
+    public QueryCache(int capacity, int statementsPerConnection) {
+        this.sql = new LruCache<>(capacity);
+        this.statementsPerConnection = statementsPerConnection;
+    }
+
+    String sql(Query shape, Function<Query, String> render) {
+        return sql.computeIfAbsent(shape, render);
+    }
+
+    PreparedStatement prepare(Connection c, String sql)
+    throws SQLException {
+        Connection physical = c.unwrap(Connection.class);
+        LruCache<String, PreparedStatement> cached = statementsOf(physical);
+
+        PreparedStatement ps = cached.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            ps.clearParameters();
+            return ps;
+        }
+        ps = physical.prepareStatement(sql);
+        cached.put(sql, ps);
+        return ps;
+    }
+
+    public void invalidateStatements() {
+        synchronized (statements) {
+            generation++;
+        }
+    }
+
+    /**
+     * Closes and forgets the statements prepared on {@code physical}; called
+     * when the pool closes that connection.
+     */
+    public void discard(Connection physical) {
+        synchronized (statements) {
+            Statements cached = statements.remove(physical);
+            if (cached != null)
+                retire(cached.cache());
+        }
+    }
+
+    public CacheStats sqlStats() {
+        return sql.stats();
+    }
+
+    public CacheStats statementStats() {
+        synchronized (statements) {
+            long hits = statementHits;
+            long misses = statementMisses;
+            long evictions = statementEvictions;
+            for (Statements s : statements.values()) {
+                CacheStats stats = s.cache().stats();
+                hits += stats.hits();
+                misses += stats.misses();
+                evictions += stats.evictions();
+            }
+            return new CacheStats(hits, misses, evictions);
+        }
+    }
+
+    private record Statements(
+            LruCache<String, PreparedStatement> cache,
+            long generation
+    ) {}
+
+    private LruCache<String, PreparedStatement> statementsOf(
+            Connection physical
+    ) throws SQLException {
+        synchronized (statements) {
+            Statements cached = statements.get(physical);
+            if (cached != null && cached.generation() != generation) {
+                retire(cached.cache());
+                cached = null;
+            }
+            if (cached == null) {
+                purgeClosedConnections();
+                cached = new Statements(
+                        new LruCache<>(
+                                statementsPerConnection,
+                                QueryCache::closeQuietly),
+                        generation);
+                statements.put(physical, cached);
+            }
+            return cached.cache();
+        }
+    }
+
+    private void purgeClosedConnections()
+    throws SQLException {
+        var it = statements.entrySet().iterator();
+        while (it.hasNext()) {
+            var e = it.next();
+            if (e.getKey().isClosed()) {
+                retire(e.getValue().cache());
+                it.remove();
+            }
+        }
+    }
+
+    private void retire(LruCache<String, PreparedStatement> cached) {
+        CacheStats stats = cached.stats();
+        statementHits += stats.hits();
+        statementMisses += stats.misses();
+        statementEvictions += stats.evictions();
+        cached.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
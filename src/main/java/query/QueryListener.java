@@ -0,0 +1,13 @@
+package query;
+
+/**
+ * Receives a {@link QueryTrace} after every select, once its rows have been
+ * materialized or, for streams, once the stream is closed.
+ */
+@FunctionalInterface
+public interface QueryListener
+{
+    QueryListener NONE = trace -> {};
+
+    void onQuery(QueryTrace trace);
+}
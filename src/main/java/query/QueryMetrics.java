@@ -0,0 +1,79 @@
+package query;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * In-process {@link QueryListener}: latency histograms overall and per
+ * {@link QueryPhase}, row and byte counters, and a slow-query log that
+ * records the generated statement of every query at or above the threshold.
+ */
+public class QueryMetrics
+        implements QueryListener {
+    private static final Logger SLOW_LOG = Logger.getLogger("query.slow");
+
+    private final long slowNanos;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<QueryPhase, LatencyHistogram> phases =
+            new EnumMap<>(QueryPhase.class);
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder slowQueries = new LongAdder();
+
+    public QueryMetrics(Duration slowThreshold) {
+        this.slowNanos = slowThreshold.toNanos();
+        for (QueryPhase phase : QueryPhase.values())
+            phases.put(phase, new LatencyHistogram());
+    }
+
+    @Override
+    public void onQuery(QueryTrace trace) {
+        long total = trace.totalNanos();
+        latency.record(total);
+        trace.phaseNanos().forEach((phase, nanos) ->
+                phases.get(phase).record(nanos));
+        rows.add(trace.rows());
+        bytes.add(trace.bytes());
+        if (trace.failure().isDefined())
+            failures.increment();
+
+        if (total >= slowNanos) {
+            slowQueries.increment();
+            SLOW_LOG.warning(() -> "slow query on " + trace.backend() +
+                    " (" + Duration.ofNanos(total).toMillis() + " ms, " +
+                    trace.rows() + " rows): " + trace.statement().get());
+        }
+    }
+
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    public LatencyHistogram latency(QueryPhase phase) {
+        return phases.get(phase);
+    }
+
+    public long queries() {
+        return latency.count();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    public long rows() {
+        return rows.sum();
+    }
+
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public long slowQueries() {
+        return slowQueries.sum();
+    }
+}
@@ -0,0 +1,102 @@
+package query;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import query.QueryPlan.JoinPlan;
+
+/**
+ * Splits the where clause into conjuncts, places each one at the earliest
+ * source that binds all of its attributes, and computes which attributes
+ * of every source are needed once that source has been joined.
+ */
+public final class QueryOptimizer {
+    private QueryOptimizer() {}
+
+    private record Placement(Predicate p, int stage, boolean pushable) {}
+
+    public static QueryPlan plan(Query q) {
+        List<EntityType> sources = q.joins()
+                .map(j -> j.from().et())
+                .prepend(q.from().et());
+        List<Placement> placements = q.where()
+                .flatMap(QueryOptimizer::conjuncts)
+                .map(p -> place(sources, p));
+
+        // attributes used after their source has been joined: downstream
+        // terms, filters placed after a join, and the join keys themselves
+        List<Attr> used = downstreamAttrs(q)
+                .appendAll(placements
+                        .filter(pl -> pl.stage() > 0 && !pl.pushable())
+                        .flatMap(pl -> attrs(pl.p())))
+                .appendAll(q.joins().flatMap(j -> j.on()
+                        .flatMap(QueryOptimizer::attrs)))
+                .distinct();
+
+        List<JoinPlan> joins = List.range(0, q.joins().size())
+                .map(i -> new JoinPlan(
+                        q.joins().get(i),
+                        placements
+                                .filter(pl -> pl.stage() == i + 1 && pl.pushable())
+                                .map(Placement::p),
+                        placements
+                                .filter(pl -> pl.stage() == i + 1 && !pl.pushable())
+                                .map(Placement::p),
+                        used.filter(a -> sourceOf(sources, a).contains(i + 1))));
+
+        return new QueryPlan(
+                q,
+                placements.filter(pl -> pl.stage() == 0).map(Placement::p),
+                used.filter(a -> sourceOf(sources, a).contains(0)),
+                joins);
+    }
+
+    /**
+     * A conjunct runs right after the last source it reads; when that is a
+     * join and it reads nothing else, it can run inside the join. Conjuncts
+     * on attributes of no source are left until every join is done.
+     */
+    private static Placement place(List<EntityType> sources, Predicate p) {
+        List<Option<Integer>> reads = attrs(p).map(a -> sourceOf(sources, a));
+        if (reads.exists(Option::isEmpty))
+            return new Placement(p, sources.size() - 1, false);
+
+        List<Integer> stages = reads.map(Option::get).distinct();
+        int stage = stages.max().getOrElse(0);
+        return new Placement(p, stage, stage > 0 && stages.size() == 1);
+    }
+
+    static List<Predicate> conjuncts(Predicate p) {
+        return p instanceof And a
+                ? conjuncts(a.left()).appendAll(conjuncts(a.right()))
+                : List.of(p);
+    }
+
+    static List<Attr> attrs(Predicate p) {
+        return switch (p) {
+            case BinOp bo -> bo.right() instanceof AttrClauseTerm r
+                    ? List.of(bo.left().attr(), r.attr())
+                    : List.of(bo.left().attr());
+            case And a -> attrs(a.left()).appendAll(attrs(a.right()));
+            case Or o -> attrs(o.left()).appendAll(attrs(o.right()));
+            case Not n -> attrs(n.predicate());
+            case In in -> List.of(in.left().attr());
+            case Const ignored -> List.empty();
+        };
+    }
+
+    private static List<Attr> downstreamAttrs(Query q) {
+        return q.select()
+                .map(t -> switch (t) {
+                    case AttrSelectTerm at -> at.attr();
+                    case Aggregation a -> a.t().attr();
+                })
+                .appendAll(q.groupBy())
+                .appendAll(q.having().flatMap(QueryOptimizer::attrs))
+                .appendAll(q.orderBy().map(ob -> ob.t().attr()));
+    }
+
+    private static Option<Integer> sourceOf(List<EntityType> sources, Attr a) {
+        int i = sources.indexWhere(et -> et.attrs().contains(a));
+        return i < 0 ? Option.none() : Option.some(i);
+    }
+}
@@ -0,0 +1,14 @@
+package query;
+
+/**
+ * Phases of a {@link QueryTrace}. The Mongo driver checks a connection out
+ * inside the aggregate call, so {@link MongoRepo} reports no
+ * {@code ACQUIRE} and that time counts towards {@code EXECUTE}.
+ */
+public enum QueryPhase
+{
+    TRANSLATE,
+    ACQUIRE,
+    EXECUTE,
+    MATERIALIZE
+}
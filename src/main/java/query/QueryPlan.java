@@ -0,0 +1,29 @@
+package query;
+
+import io.vavr.collection.List;
+
+/**
+ * Placement of a query's filters and fields across its join stages, as
+ * computed by {@link QueryOptimizer}: {@code base} filters run on the from
+ * entity before any join, {@code baseFields} are the from attributes used
+ * downstream.
+ */
+public record QueryPlan(
+        Query query,
+        List<Predicate> base,
+        List<Attr> baseFields,
+        List<JoinPlan> joins
+) {
+    /**
+     * {@code pushed} filters run on the joined entity alone, before its
+     * documents are joined; {@code after} filters need this join and
+     * earlier sources, and run right after it; {@code fields} are the joined
+     * attributes used downstream.
+     */
+    public record JoinPlan(
+            Join join,
+            List<Predicate> pushed,
+            List<Predicate> after,
+            List<Attr> fields
+    ) {}
+}
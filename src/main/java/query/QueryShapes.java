@@ -0,0 +1,76 @@
+package query;
+
+import io.vavr.collection.List;
+
+/**
+ * Separates a {@link Query} into its shape, with every {@link Value} literal
+ * blanked out, and the literals themselves, paired with the attribute they
+ * are compared to, in the order they appear in the generated SQL: join
+ * conditions, where, then having. Limit and offset are blanked out too and
+ * bound after the literals.
+ */
+final class QueryShapes {
+    private static final Value PLACEHOLDER = new Value(null);
+
+    record Literal(Attr attr, Op op, Value value) {}
+
+    private QueryShapes() {}
+
+    static Query shape(Query q) {
+        return new Query(
+                q.select(),
+                q.from(),
+                q.where().map(QueryShapes::shape),
+                q.joins().map(j -> new Join(
+                        j.from(),
+                        j.on().map(QueryShapes::shape))),
+                q.groupBy(),
+                q.having().map(QueryShapes::shape),
+                q.orderBy(),
+                q.limit().map(l -> 0),
+                q.offset() > 0 ? 1 : 0);
+    }
+
+    /**
+     * Limit and offset, in the order the generated SQL binds them; an
+     * offset of 0 is left out.
+     */
+    static List<Integer> paging(Query q) {
+        return q.limit().toList()
+                .appendAll(q.offset() > 0 ? List.of(q.offset()) : List.empty());
+    }
+
+    static List<Literal> literals(Query q) {
+        return q.joins()
+                .flatMap(Join::on)
+                .appendAll(q.where())
+                .appendAll(q.having())
+                .flatMap(QueryShapes::literals);
+    }
+
+    private static Predicate shape(Predicate p) {
+        return switch (p) {
+            case BinOp bo -> bo.right() instanceof Value
+                    ? new BinOp(bo.left(), bo.op(), PLACEHOLDER)
+                    : bo;
+            case And a -> new And(shape(a.left()), shape(a.right()));
+            case Or o -> new Or(shape(o.left()), shape(o.right()));
+            case Not n -> new Not(shape(n.predicate()));
+            case In in -> new In(in.left(), in.values().map(v -> PLACEHOLDER));
+            case Const c -> c;
+        };
+    }
+
+    private static List<Literal> literals(Predicate p) {
+        return switch (p) {
+            case BinOp bo -> bo.right() instanceof Value v
+                    ? List.of(new Literal(bo.left().attr(), bo.op(), v))
+                    : List.empty();
+            case And a -> literals(a.left()).appendAll(literals(a.right()));
+            case Or o -> literals(o.left()).appendAll(literals(o.right()));
+            case Not n -> literals(n.predicate());
+            case In in -> in.values().map(v -> new Literal(in.left().attr(), Op.EQ, v));
+            case Const ignored -> List.empty();
+        };
+    }
+}
@@ -0,0 +1,23 @@
+package query;
+
+import io.vavr.Lazy;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+
+/**
+ * Timings and volume of one query run by a {@link Repository}; the
+ * generated statement (SQL or Mongo pipeline) is rendered on first access.
+ */
+public record QueryTrace(
+        Query query,
+        String backend,
+        Lazy<String> statement,
+        Map<QueryPhase, Long> phaseNanos,
+        long rows,
+        long bytes,
+        Option<Throwable> failure
+) {
+    public long totalNanos() {
+        return phaseNanos.values().sum().longValue();
+    }
+}
@@ -0,0 +1,100 @@
+package query;
+
+import io.vavr.CheckedFunction0;
+import io.vavr.Lazy;
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+
+import java.util.function.Supplier;
+
+/**
+ * Accumulates a {@link QueryTrace} while a repository runs a query: each
+ * {@link #mark} charges the time since the previous mark to the phase that
+ * just ended, and {@link #finish} charges the rest to the phase after it.
+ */
+final class QueryTracer {
+    private final QueryListener listener;
+    private final String backend;
+    private final Query query;
+    private Lazy<String> statement = Lazy.of(() -> "");
+    private Map<QueryPhase, Long> phaseNanos = LinkedHashMap.empty();
+    private long last = System.nanoTime();
+    private QueryPhase lastPhase;
+    private long rows;
+    private long bytes;
+    private boolean finished;
+
+    QueryTracer(QueryListener listener, String backend, Query query) {
+        this.listener = listener;
+        this.backend = backend;
+        this.query = query;
+    }
+
+    void statement(Supplier<String> statement) {
+        this.statement = Lazy.of(statement);
+    }
+
+    void mark(QueryPhase phase) {
+        long now = System.nanoTime();
+        phaseNanos = phaseNanos.put(
+                phase,
+                phaseNanos.getOrElse(phase, 0L) + now - last);
+        last = now;
+        lastPhase = phase;
+    }
+
+    List<Object> row(List<Object> row) {
+        rows++;
+        if (listener != QueryListener.NONE)
+            for (Object value : row)
+                bytes += estimateBytes(value);
+        return row;
+    }
+
+    void rows(long rows, long bytes) {
+        this.rows += rows;
+        this.bytes += bytes;
+    }
+
+    <T> T trace(CheckedFunction0<T> run) throws Throwable {
+        try {
+            T result = run.apply();
+            finish(null);
+            return result;
+        } catch (Throwable e) {
+            finish(e);
+            throw e;
+        }
+    }
+
+    void finish(Throwable failure) {
+        if (finished)
+            return;
+        finished = true;
+        mark(lastPhase == null
+                ? QueryPhase.TRANSLATE
+                : QueryPhase.values()[Math.min(
+                        lastPhase.ordinal() + 1,
+                        QueryPhase.MATERIALIZE.ordinal())]);
+        listener.onQuery(new QueryTrace(
+                query,
+                backend,
+                statement,
+                phaseNanos,
+                rows,
+                bytes,
+                Option.of(failure)));
+    }
+
+    static long estimateBytes(Object value) {
+        return switch (value) {
+            case null -> 0;
+            case Integer ignored -> Integer.BYTES;
+            case Number ignored -> Long.BYTES;
+            case String s -> s.length();
+            default -> value.toString().length();
+        };
+    }
+}
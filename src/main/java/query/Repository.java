@@ -3,8 +3,65 @@ package query;
 import io.vavr.collection.List;
 import io.vavr.control.Try;
 
+import java.util.stream.Stream;
+
 public interface Repository {
     void init(EntityType... types);
     void addEntities(Entity... es);
     Try<List<List<Object>>> select(Query q);
+
+    /**
+     * Like {@link #addEntities}, but reports whether the entities were
+     * stored. Backends whose {@code addEntities} swallows failures override
+     * this; the default succeeds unless {@code addEntities} throws.
+     */
+    default Try<Void> tryAddEntities(Entity... es) {
+        return Try.run(() -> addEntities(es));
+    }
+
+    /**
+     * Rows of each of {@code qs}, in the same order. Backends that can
+     * answer several queries in one round trip override this; the default
+     * runs them one by one.
+     */
+    default Try<List<List<List<Object>>>> selectAll(List<Query> qs) {
+        return Try.sequence(qs.map(this::select)).map(List::ofAll);
+    }
+
+    /**
+     * Whether {@link #select} can run {@code q}, judged from its operators
+     * alone; a query this returns false for fails with
+     * {@link UnsupportedOperationException}. See {@link RoutingRepo}.
+     */
+    default boolean supports(Query q) {
+        return true;
+    }
+
+    /**
+     * Creates the given secondary indexes unless they already exist; see
+     * {@link IndexAdvisor}. Backends without secondary indexes ignore them.
+     */
+    default void createIndexes(List<IndexSpec> indexes) {}
+
+    /**
+     * Rows of {@code q} pulled lazily from the underlying cursor; the stream
+     * holds database resources until it is closed. Implementations without
+     * a cursor fall back to materializing {@link #select}.
+     */
+    default Try<Stream<List<Object>>> selectStream(Query q) {
+        return select(q).map(List::toJavaStream);
+    }
+
+    /**
+     * Rows of {@code q} stored column by column; see {@link ColumnarResult}.
+     */
+    default Try<ColumnarResult> selectColumnar(Query q) {
+        return selectStream(q).mapTry(rows -> {
+            try (rows) {
+                return ColumnarResult.ofRows(
+                        q.select().map(ColumnarResult::columnType),
+                        rows::iterator);
+            }
+        });
+    }
 }
@@ -0,0 +1,239 @@
+package query;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Repository over several backends holding the same data. Writes go to
+ * every backend; each select goes to the backend that has answered
+ * queries of the same shape (see {@link QueryShapes}) fastest so far,
+ * among those that {@link Repository#supports support} it. A backend
+ * failing with {@link UnsupportedOperationException} anyway is not asked
+ * for that shape again and the next one is tried. Until every capable
+ * backend has answered {@link #MIN_SAMPLES} queries of a shape, queries
+ * of that shape go round-robin to the least measured one, so that one
+ * noisy sample does not decide the route; after that every
+ * {@link #PROBE_EVERY}th query of a shape goes to the runner-up so that
+ * its latency stays current. Streamed and columnar selects follow the same
+ * route without being timed; {@link #selectAll} goes in one call to the
+ * best backend for the first query's shape among those supporting them
+ * all, or else query by query. A write is attempted on every backend;
+ * if it fails on some but not all of them, it fails, and the ones it
+ * failed on are not asked about the written entity types until those
+ * are {@link #init initialized} again.
+ */
+public class RoutingRepo
+        implements Repository {
+    static final int PROBE_EVERY = 32;
+    static final int MIN_SAMPLES = 3;
+    private static final int SHAPES = 1024;
+
+    private final LongSupplier clock;
+    private final List<Repository> backends;
+    private final LruCache<Query, ShapeStats> shapes = new LruCache<>(SHAPES);
+    private volatile Map<Integer, Set<EntityType>> stale = HashMap.empty();
+
+    public RoutingRepo(Repository... backends) {
+        this(System::nanoTime, backends);
+    }
+
+    /**
+     * Routes between {@code backends}, timing their queries with
+     * {@code clock}, a source of nanoseconds.
+     */
+    public RoutingRepo(LongSupplier clock, Repository... backends) {
+        if (backends.length == 0)
+            throw new IllegalArgumentException("at least one backend is required");
+        this.clock = clock;
+        this.backends = List.of(backends);
+    }
+
+    @Override
+    public void init(EntityType... types) {
+        backends.forEach(b -> b.init(types));
+        synchronized (this) {
+            stale = stale.mapValues(ts -> ts.removeAll(List.of(types)));
+        }
+    }
+
+    /**
+     * Stores {@code es} through {@link #tryAddEntities}, so that failures
+     * a backend only reports from there are rethrown too.
+     */
+    @Override
+    public void addEntities(Entity... es) {
+        tryAddEntities(es).get();
+    }
+
+    @Override
+    public Try<Void> tryAddEntities(Entity... es) {
+        List<Try<Void>> stored = backends.map(b ->
+                Try.of(() -> b.tryAddEntities(es)).flatMap(t -> t));
+        List<Throwable> failures = stored
+                .filter(Try::isFailure)
+                .map(Try::getCause);
+        if (failures.isEmpty())
+            return Try.success(null);
+        if (stored.exists(Try::isSuccess)) {
+            Set<EntityType> written = HashSet.of(es).map(Entity::type);
+            synchronized (this) {
+                for (int b = 0; b < backends.size(); b++)
+                    if (stored.get(b).isFailure())
+                        stale = stale.put(b, written, Set::union);
+            }
+        }
+        failures.tail().forEach(failures.head()::addSuppressed);
+        return Try.failure(failures.head());
+    }
+
+    @Override
+    public void createIndexes(List<IndexSpec> indexes) {
+        backends.forEach(b -> b.createIndexes(indexes));
+    }
+
+    @Override
+    public boolean supports(Query q) {
+        return List.range(0, backends.size()).exists(b -> usable(b, q));
+    }
+
+    @Override
+    public Try<List<List<Object>>> select(Query q) {
+        return route(q, true, b -> b.select(q));
+    }
+
+    @Override
+    public Try<List<List<List<Object>>>> selectAll(List<Query> qs) {
+        if (qs.isEmpty())
+            return Try.success(List.empty());
+        Try<List<List<List<Object>>>> result = Try.failure(
+                new UnsupportedOperationException("no backend supports " + qs));
+        for (int backend : stats(qs.head()).rank(
+                b -> qs.forAll(q -> usable(b, q)))) {
+            result = backends.get(backend).selectAll(qs);
+            if (!(result.isFailure() &&
+                    result.getCause() instanceof UnsupportedOperationException))
+                return result;
+        }
+        return Try.sequence(qs.map(this::select)).map(List::ofAll);
+    }
+
+    @Override
+    public Try<Stream<List<Object>>> selectStream(Query q) {
+        return route(q, false, b -> b.selectStream(q));
+    }
+
+    @Override
+    public Try<ColumnarResult> selectColumnar(Query q) {
+        return route(q, false, b -> b.selectColumnar(q));
+    }
+
+    /**
+     * Runs {@code call} on the capable backends in rank order until one
+     * does not fail with {@link UnsupportedOperationException}, recording
+     * its latency if {@code timed}.
+     */
+    private <T> Try<T> route(Query q, boolean timed, Function<Repository, Try<T>> call) {
+        ShapeStats stats = stats(q);
+        Try<T> result = Try.failure(
+                new UnsupportedOperationException("no backend supports " + q));
+        for (int backend : stats.rank(b -> usable(b, q))) {
+            long start = clock.getAsLong();
+            result = call.apply(backends.get(backend));
+            if (result.isSuccess()) {
+                if (timed)
+                    stats.record(backend, clock.getAsLong() - start);
+                return result;
+            }
+            if (!(result.getCause() instanceof UnsupportedOperationException))
+                return result;
+            stats.unsupported(backend);
+        }
+        return result;
+    }
+
+    /**
+     * Smoothed latency of queries shaped like {@code q} on the backend at
+     * position {@code backend}, if it has answered any.
+     */
+    public Option<Long> latencyNanos(Query q, int backend) {
+        return stats(q).latencyNanos(backend);
+    }
+
+    /**
+     * Whether the backend at position {@code b} supports {@code q} and
+     * holds all the writes to the entity types it reads from.
+     */
+    private boolean usable(int b, Query q) {
+        Set<EntityType> missed = stale.get(b).getOrElse(HashSet.empty());
+        return backends.get(b).supports(q) &&
+                !missed.contains(q.from().et()) &&
+                !q.joins().exists(j -> missed.contains(j.from().et()));
+    }
+
+    private ShapeStats stats(Query q) {
+        return shapes.computeIfAbsent(
+                QueryShapes.shape(PredicateNormalizer.normalize(q)),
+                shape -> new ShapeStats(backends.size()));
+    }
+
+    /**
+     * Latency per backend: the mean of the first eight samples, then
+     * exponentially weighted with each new sample weighing one eighth.
+     */
+    private static final class ShapeStats {
+        private final long[] latency;
+        private final int[] samples;
+        private final boolean[] unsupported;
+        private long queries;
+
+        ShapeStats(int backends) {
+            this.latency = new long[backends];
+            this.samples = new int[backends];
+            this.unsupported = new boolean[backends];
+            Arrays.fill(latency, -1);
+        }
+
+        synchronized List<Integer> rank(IntPredicate supports) {
+            List<Integer> capable = List.range(0, latency.length)
+                    .filter(b -> !unsupported[b] && supports.test(b));
+            ++queries;
+            if (capable.exists(b -> samples[b] < MIN_SAMPLES))
+                return capable.sortBy(b -> samples[b]);
+            List<Integer> ranked = capable.sortBy(b -> latency[b]);
+            if (queries % PROBE_EVERY == 0 && ranked.size() > 1)
+                ranked = ranked.drop(2)
+                        .prepend(ranked.head())
+                        .prepend(ranked.get(1));
+            return ranked;
+        }
+
+        synchronized void record(int backend, long nanos) {
+            samples[backend] = Math.min(samples[backend] + 1, 8);
+            latency[backend] = latency[backend] < 0
+                    ? nanos
+                    : latency[backend] +
+                    (nanos - latency[backend]) / samples[backend];
+        }
+
+        synchronized void unsupported(int backend) {
+            unsupported[backend] = true;
+        }
+
+        synchronized Option<Long> latencyNanos(int backend) {
+            return latency[backend] < 0
+                    ? Option.none()
+                    : Option.some(latency[backend]);
+        }
+    }
+}
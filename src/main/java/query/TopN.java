@@ -0,0 +1,184 @@
+package query;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import query.ColumnStore.IntStore;
+import query.ColumnStore.StrStore;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Order by, offset and limit over a {@link Frame} for {@link InMemoryRepo}.
+ * With a limit, only the first {@code offset + limit} tuples in order are
+ * kept, in a bounded max-heap, so the cost is {@code n log k} rather than a
+ * full sort. Tuples are compared on {@code int} values and on the ranks of
+ * Str values in sorted dictionary order, nulls first; ties keep their
+ * original order.
+ */
+final class TopN {
+    @FunctionalInterface
+    interface TupleOrder {
+        int compare(int a, int b);
+    }
+
+    private TopN() {}
+
+    static Frame select(Frame f, List<OrderBy> orderBy, int offset, Option<Integer> limit) {
+        long wanted = limit.map(l -> (long) offset + l).getOrElse(Long.MAX_VALUE);
+        int[] tuples;
+        if (orderBy.isEmpty()) {
+            tuples = IntStream.range(0, (int) Math.min(wanted, f.size())).toArray();
+        } else {
+            TupleOrder order = order(f, orderBy);
+            tuples = wanted < f.size()
+                    ? top(f.size(), (int) wanted, order)
+                    : sorted(IntStream.range(0, f.size()).toArray(), order);
+        }
+        if (offset == 0 && tuples.length == f.size() && orderBy.isEmpty())
+            return f;
+        return f.select(Arrays.copyOfRange(tuples, Math.min(offset, tuples.length), tuples.length));
+    }
+
+    static TupleOrder order(Frame f, List<OrderBy> orderBy) {
+        TupleOrder order = (a, b) -> Integer.compare(a, b);
+        for (OrderBy ob : orderBy.reverse()) {
+            TupleOrder key = key(f, f.slot(ob.t().attr()));
+            TupleOrder directed = ob.mode() == OrderByMode.DESC
+                    ? (a, b) -> key.compare(b, a)
+                    : key;
+            TupleOrder then = order;
+            order = (a, b) -> {
+                int c = directed.compare(a, b);
+                return c != 0 ? c : then.compare(a, b);
+            };
+        }
+        return order;
+    }
+
+    private static TupleOrder key(Frame f, Frame.Slot slot) {
+        int[] rows = f.rows(slot.source());
+        ColumnStore column = slot.column();
+        int[] values;
+        if (column instanceof StrStore strs) {
+            String[] sorted = new String[strs.dictionarySize()];
+            for (int code = 0; code < sorted.length; code++)
+                sorted[code] = strs.decode(code);
+            Arrays.sort(sorted);
+            values = new int[sorted.length];
+            for (int code = 0; code < sorted.length; code++)
+                values[code] = Arrays.binarySearch(sorted, strs.decode(code));
+            int[] codes = strs.codes();
+            return (a, b) -> compare(column, rows[a], rows[b],
+                    () -> Integer.compare(values[codes[rows[a]]], values[codes[rows[b]]]));
+        }
+        int[] ints = ((IntStore) column).values();
+        return (a, b) -> compare(column, rows[a], rows[b],
+                () -> Integer.compare(ints[rows[a]], ints[rows[b]]));
+    }
+
+    private static int compare(ColumnStore column, int a, int b, java.util.function.IntSupplier values) {
+        boolean aNull = column.isNull(a);
+        boolean bNull = column.isNull(b);
+        if (aNull || bNull)
+            return aNull == bNull ? 0 : aNull ? -1 : 1;
+        return values.getAsInt();
+    }
+
+    private static final int INSERTION_THRESHOLD = 32;
+
+    /** Stable merge sort of {@code tuples}, in place; returns it. */
+    private static int[] sorted(int[] tuples, TupleOrder order) {
+        int n = tuples.length;
+        for (int lo = 0; lo < n; lo += INSERTION_THRESHOLD)
+            insertionSort(tuples, lo, Math.min(lo + INSERTION_THRESHOLD, n), order);
+        if (n <= INSERTION_THRESHOLD)
+            return tuples;
+
+        int[] src = tuples;
+        int[] dst = new int[n];
+        for (int width = INSERTION_THRESHOLD; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                merge(src, dst, lo, mid, hi, order);
+            }
+            int[] t = src;
+            src = dst;
+            dst = t;
+        }
+        if (src != tuples)
+            System.arraycopy(src, 0, tuples, 0, n);
+        return tuples;
+    }
+
+    private static void insertionSort(int[] a, int lo, int hi, TupleOrder order) {
+        for (int i = lo + 1; i < hi; i++) {
+            int t = a[i];
+            int j = i - 1;
+            while (j >= lo && order.compare(a[j], t) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = t;
+        }
+    }
+
+    private static void merge(int[] src, int[] dst, int lo, int mid, int hi, TupleOrder order) {
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++)
+            dst[k] = j >= hi || (i < mid && order.compare(src[i], src[j]) <= 0)
+                    ? src[i++]
+                    : src[j++];
+    }
+
+    /** The first {@code k} of tuples {@code 0..n-1} in order, sorted. */
+    private static int[] top(int n, int k, TupleOrder order) {
+        int[] heap = new int[k];
+        int size = 0;
+        for (int t = 0; t < n && k > 0; t++) {
+            if (size < k) {
+                heap[size] = t;
+                siftUp(heap, size++, order);
+            } else if (order.compare(t, heap[0]) < 0) {
+                heap[0] = t;
+                siftDown(heap, size, order);
+            }
+        }
+        return sorted(Arrays.copyOf(heap, size), order);
+    }
+
+    private static void siftUp(int[] heap, int i, TupleOrder order) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (order.compare(heap[i], heap[parent]) <= 0)
+                return;
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, TupleOrder order) {
+        int i = 0;
+        while (true) {
+            int largest = i;
+            int l = 2 * i + 1;
+            int r = l + 1;
+            if (l < size && order.compare(heap[l], heap[largest]) > 0)
+                largest = l;
+            if (r < size && order.compare(heap[r], heap[largest]) > 0)
+                largest = r;
+            if (largest == i)
+                return;
+            swap(heap, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int t = heap[i];
+        heap[i] = heap[j];
+        heap[j] = t;
+    }
+}
@@ -0,0 +1,277 @@
+package query;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import query.ColumnStore.IntStore;
+import query.ColumnStore.StrStore;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates normalized predicates over a {@link Frame} a selection vector
+ * at a time: each filter takes the ascending positions of the candidate
+ * tuples and returns those for which the predicate is true. Comparisons
+ * run as tight loops over {@code int} values or dictionary codes; a Str
+ * comparison with a constant is evaluated once per dictionary entry.
+ * <p>
+ * Comparisons with a null cell are unknown and never selected, negated or
+ * not, which is why predicates must have their negations pushed down to
+ * the comparisons by {@link PredicateNormalizer} first.
+ */
+final class VectorFilter {
+    private static final int[] NONE = new int[0];
+
+    private VectorFilter() {}
+
+    static int[] range(int from, int to) {
+        int[] sel = new int[to - from];
+        Arrays.setAll(sel, i -> from + i);
+        return sel;
+    }
+
+    static int[] filter(Frame f, List<Predicate> conjuncts, int[] sel) {
+        for (Predicate p : conjuncts)
+            sel = filter(f, p, sel);
+        return sel;
+    }
+
+    static int[] filter(Frame f, Predicate p, int[] sel) {
+        if (sel.length == 0)
+            return sel;
+        return switch (p) {
+            case And a -> filter(f, a.right(), filter(f, a.left(), sel));
+            case Or o -> {
+                int[] left = filter(f, o.left(), sel);
+                yield union(left, filter(f, o.right(), minus(sel, left)));
+            }
+            case Not n && (n.predicate() instanceof And
+                    || n.predicate() instanceof Or
+                    || n.predicate() instanceof Not) ->
+                    filter(f, PredicateNormalizer.normalize(p), sel);
+            case Not n -> leaf(f, n.predicate(), true, sel);
+            case Const c -> c.value() ? sel : NONE;
+            default -> leaf(f, p, false, sel);
+        };
+    }
+
+    private static int[] leaf(Frame f, Predicate p, boolean negated, int[] sel) {
+        return switch (p) {
+            case BinOp b && b.right() instanceof Null ->
+                    b.op() == Op.EQ ? nulls(f, f.slot(b.left().attr()), !negated, sel) : NONE;
+            case BinOp b && b.right() instanceof AttrClauseTerm r ->
+                    compare(f, f.slot(b.left().attr()), b.op(), f.slot(r.attr()), negated, sel);
+            case BinOp b -> compare(f, b.left().attr(), b.op(), (Value) b.right(), negated, sel);
+            case In in -> in(f, in, negated, sel);
+            case Const c -> c.value() != negated ? sel : NONE;
+            default -> throw new IllegalArgumentException("not a comparison: " + p);
+        };
+    }
+
+    private static int[] compare(
+            Frame f,
+            Attr attr,
+            Op op,
+            Value value,
+            boolean negated,
+            int[] sel
+    ) {
+        Frame.Slot slot = f.slot(attr);
+        if (op == Op.LIKE) {
+            if (value.value() == null)
+                return NONE;
+            Pattern pattern = likePattern(value.value().toString());
+            return objects(f, slot, v -> pattern.matcher(v.toString()).matches(), negated, sel);
+        }
+        Option<Object> constant = PredicateNormalizer.coerce(attr, value);
+        if (constant.isEmpty())
+            return NONE;
+        return switch (slot.column()) {
+            case IntStore ints -> {
+                int c = (Integer) constant.get();
+                yield ints(f, slot, ints, switch (op) {
+                    case EQ -> v -> v == c;
+                    case LT -> v -> v < c;
+                    case GT -> v -> v > c;
+                    case LIKE -> throw new IllegalStateException();
+                }, negated, sel);
+            }
+            case StrStore strs -> {
+                String c = (String) constant.get();
+                yield codes(f, slot, strs, switch (op) {
+                    case EQ -> v -> v.equals(c);
+                    case LT -> v -> v.compareTo(c) < 0;
+                    case GT -> v -> v.compareTo(c) > 0;
+                    case LIKE -> throw new IllegalStateException();
+                }, negated, sel);
+            }
+        };
+    }
+
+    private static int[] in(Frame f, In in, boolean negated, int[] sel) {
+        Attr attr = in.left().attr();
+        List<Object> constants = in.values()
+                .flatMap(v -> PredicateNormalizer.coerce(attr, v));
+        Frame.Slot slot = f.slot(attr);
+        return switch (slot.column()) {
+            case IntStore ints -> {
+                int[] sorted = constants.map(c -> (Integer) c)
+                        .toJavaStream().mapToInt(Integer::intValue)
+                        .sorted().toArray();
+                yield ints(f, slot, ints,
+                        v -> Arrays.binarySearch(sorted, v) >= 0, negated, sel);
+            }
+            case StrStore strs -> codes(f, slot, strs, constants::contains, negated, sel);
+        };
+    }
+
+    private static int[] ints(
+            Frame f,
+            Frame.Slot slot,
+            IntStore column,
+            IntPredicate test,
+            boolean negated,
+            int[] sel
+    ) {
+        int[] rows = f.rows(slot.source());
+        int[] values = column.values();
+        int[] out = new int[sel.length];
+        int n = 0;
+        for (int i : sel) {
+            int row = rows[i];
+            if (!column.isNull(row) && test.test(values[row]) != negated)
+                out[n++] = i;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] codes(
+            Frame f,
+            Frame.Slot slot,
+            StrStore column,
+            java.util.function.Predicate<String> test,
+            boolean negated,
+            int[] sel
+    ) {
+        boolean[] matches = new boolean[column.dictionarySize()];
+        for (int code = 0; code < matches.length; code++)
+            matches[code] = test.test(column.decode(code)) != negated;
+
+        int[] rows = f.rows(slot.source());
+        int[] codes = column.codes();
+        int[] out = new int[sel.length];
+        int n = 0;
+        for (int i : sel) {
+            int code = codes[rows[i]];
+            if (code >= 0 && matches[code])
+                out[n++] = i;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] objects(
+            Frame f,
+            Frame.Slot slot,
+            java.util.function.Predicate<Object> test,
+            boolean negated,
+            int[] sel
+    ) {
+        int[] out = new int[sel.length];
+        int n = 0;
+        for (int i : sel) {
+            Object v = f.get(slot, i);
+            if (v != null && test.test(v) != negated)
+                out[n++] = i;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] nulls(Frame f, Frame.Slot slot, boolean wanted, int[] sel) {
+        int[] rows = f.rows(slot.source());
+        ColumnStore column = slot.column();
+        int[] out = new int[sel.length];
+        int n = 0;
+        for (int i : sel)
+            if (column.isNull(rows[i]) == wanted)
+                out[n++] = i;
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] compare(
+            Frame f,
+            Frame.Slot left,
+            Op op,
+            Frame.Slot right,
+            boolean negated,
+            int[] sel
+    ) {
+        int[] out = new int[sel.length];
+        int n = 0;
+        for (int i : sel) {
+            Object l = f.get(left, i);
+            Object r = f.get(right, i);
+            if (l == null || r == null)
+                continue;
+            boolean match = switch (op) {
+                case EQ -> compare(l, r) == 0;
+                case LT -> compare(l, r) < 0;
+                case GT -> compare(l, r) > 0;
+                case LIKE -> likePattern(r.toString()).matcher(l.toString()).matches();
+            };
+            if (match != negated)
+                out[n++] = i;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    static int compare(Object l, Object r) {
+        if (l instanceof Integer a && r instanceof Integer b)
+            return Integer.compare(a, b);
+        return l.toString().compareTo(r.toString());
+    }
+
+    /** SQL like pattern: {@code %} matches any run, {@code _} one character. */
+    static Pattern likePattern(String like) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : like.toCharArray()) {
+            if (c != '%' && c != '_') {
+                literal.append(c);
+                continue;
+            }
+            if (literal.length() > 0)
+                regex.append(Pattern.quote(literal.toString()));
+            literal.setLength(0);
+            regex.append(c == '%' ? ".*" : ".");
+        }
+        if (literal.length() > 0)
+            regex.append(Pattern.quote(literal.toString()));
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /** Positions in ascending {@code sel} that are not in its subset {@code drop}. */
+    private static int[] minus(int[] sel, int[] drop) {
+        int[] out = new int[sel.length - drop.length];
+        int n = 0, d = 0;
+        for (int i : sel) {
+            if (d < drop.length && drop[d] == i)
+                d++;
+            else
+                out[n++] = i;
+        }
+        return out;
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length)
+            out[n++] = a[i] < b[j] ? a[i++] : b[j++];
+        while (i < a.length)
+            out[n++] = a[i++];
+        while (j < b.length)
+            out[n++] = b[j++];
+        return out;
+    }
+}
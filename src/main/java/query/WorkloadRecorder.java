@@ -0,0 +1,123 @@
+package query;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link QueryListener} that tallies how often the attributes of observed
+ * queries are used in where, join, group-by and order-by clauses, and which
+ * index keys would serve each query; {@link IndexAdvisor} turns the tallies
+ * into index proposals.
+ * <p>
+ * A candidate key per entity holds the attributes compared for equality,
+ * by name, followed by one range attribute or, failing that, the order-by
+ * attributes. Joined entities get their join key, and group-by attributes
+ * are a key of their own.
+ */
+public class WorkloadRecorder
+        implements QueryListener {
+
+    public enum Usage {WHERE, JOIN, GROUP_BY, ORDER_BY}
+
+    private record Use(Attr attr, Usage usage) {}
+
+    private final java.util.Map<Use, LongAdder> uses = new ConcurrentHashMap<>();
+    private final java.util.Map<IndexSpec, LongAdder> candidates =
+            new ConcurrentHashMap<>();
+    private final LongAdder queries = new LongAdder();
+
+    @Override
+    public void onQuery(QueryTrace trace) {
+        record(trace.query());
+    }
+
+    public void record(Query query) {
+        Query q = PredicateNormalizer.normalize(query);
+        List<Predicate> where = q.where().flatMap(QueryOptimizer::conjuncts);
+        List<Attr> orderBy = q.orderBy().map(ob -> ob.t().attr());
+        queries.increment();
+
+        tally(where.flatMap(QueryOptimizer::attrs), Usage.WHERE);
+        tally(q.joins().flatMap(j -> j.on().flatMap(QueryOptimizer::attrs)),
+                Usage.JOIN);
+        tally(q.groupBy(), Usage.GROUP_BY);
+        tally(orderBy, Usage.ORDER_BY);
+
+        EntityType base = q.from().et();
+        candidate(base, filterKey(base, where)
+                .appendAll(rangeKey(base, where)
+                        .orElse(ownedBy(base, orderBy).size() == orderBy.size()
+                                ? orderBy
+                                : List.empty())));
+        for (Join j : q.joins()) {
+            EntityType joined = j.from().et();
+            candidate(joined, ownedBy(joined,
+                    j.on().flatMap(QueryOptimizer::attrs).distinct()));
+            candidate(joined, filterKey(joined, where)
+                    .appendAll(rangeKey(joined, where)));
+        }
+        q.joins().map(j -> j.from().et()).prepend(base)
+                .forEach(et -> candidate(et, ownedBy(et, q.groupBy())));
+    }
+
+    public long queries() {
+        return queries.sum();
+    }
+
+    public long uses(Attr attr, Usage usage) {
+        LongAdder n = uses.get(new Use(attr, usage));
+        return n == null ? 0 : n.sum();
+    }
+
+    /**
+     * Candidate index keys with the number of queries each would serve.
+     */
+    public Map<IndexSpec, Long> candidates() {
+        return HashMap.ofAll(candidates).mapValues(LongAdder::sum);
+    }
+
+    public void reset() {
+        uses.clear();
+        candidates.clear();
+        queries.reset();
+    }
+
+    private void tally(List<Attr> attrs, Usage usage) {
+        attrs.distinct().forEach(a -> uses
+                .computeIfAbsent(new Use(a, usage), u -> new LongAdder())
+                .increment());
+    }
+
+    private void candidate(EntityType type, List<Attr> attrs) {
+        List<Attr> key = attrs.distinct();
+        if (!key.isEmpty())
+            candidates
+                    .computeIfAbsent(new IndexSpec(type, key), k -> new LongAdder())
+                    .increment();
+    }
+
+    private static List<Attr> filterKey(EntityType type, List<Predicate> where) {
+        return ownedBy(type, where.flatMap(p -> switch (p) {
+            case BinOp b && b.op() == Op.EQ && b.right() instanceof Value ->
+                    List.of(b.left().attr());
+            case In in -> List.of(in.left().attr());
+            default -> List.<Attr>empty();
+        })).distinct().sortBy(Attr::name);
+    }
+
+    private static List<Attr> rangeKey(EntityType type, List<Predicate> where) {
+        return ownedBy(type, where.flatMap(p -> switch (p) {
+            case BinOp b && (b.op() == Op.LT || b.op() == Op.GT)
+                    && b.right() instanceof Value -> List.of(b.left().attr());
+            default -> List.<Attr>empty();
+        })).filter(a -> !filterKey(type, where).contains(a)).take(1);
+    }
+
+    private static List<Attr> ownedBy(EntityType type, List<Attr> attrs) {
+        return attrs.filter(type.attrs()::contains);
+    }
+}
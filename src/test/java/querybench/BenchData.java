@@ -0,0 +1,98 @@
+package querybench;
+
+import query.*;
+
+import static query.AttrType.Int;
+import static query.AttrType.Str;
+import static query.Entities.*;
+import static query.JoinBuilder.type;
+import static query.OrderByMode.ASC;
+import static query.OrderByMode.DESC;
+import static query.PredicateBuilder.either;
+import static query.Queries.*;
+
+final class BenchData
+{
+    static final Attr foo_str = attr(Str, "foo_str");
+    static final Attr foo_cat = attr(Str, "foo_cat");
+    static final Attr foo_int = attr(Int, "foo_int");
+    static final EntityType foo = newEntityType(
+            "foo", foo_str, foo_int, foo_cat);
+
+    static final Attr bar_int = attr(Int, "bar_int");
+    static final Attr bar_cat = attr(Str, "bar_cat");
+    static final Attr bar_str = attr(Str, "bar_str");
+    static final EntityType bar = newEntityType(
+            "bar", bar_int, bar_str, bar_cat);
+
+    static final int CATEGORIES = 100;
+
+    private BenchData() {}
+
+    static Entity[] foos(int rows)
+    {
+        Entity[] es = new Entity[rows];
+        for (int i = 0; i < rows; i++)
+            es[i] = newEntity(foo, "foo_" + i,
+                    strValue(foo_str, "str_" + i),
+                    intValue(foo_int, i),
+                    strValue(foo_cat, "cat_" + (i % CATEGORIES)));
+        return es;
+    }
+
+    static Entity[] bars(int rows)
+    {
+        Entity[] es = new Entity[rows];
+        for (int i = 0; i < rows; i++)
+            es[i] = newEntity(bar, "bar_" + i,
+                    intValue(bar_int, i * 10),
+                    strValue(bar_str, "bar_str_" + i),
+                    strValue(bar_cat, "cat_" + (i % CATEGORIES)));
+        return es;
+    }
+
+    static Query simpleQuery(int lessThan)
+    {
+        return select(attr(foo_str), attr(foo_int))
+                .from(foo)
+                .where(foo_int, lt(), value(lessThan))
+                .build();
+    }
+
+    static Query groupByQuery(int greaterThan)
+    {
+        return select(attr(foo_cat), sum(attr(foo_int)))
+                .from(foo)
+                .where(either(
+                        pred(foo_cat, eq(), value("cat_1")),
+                        pred(foo_int, gt(), value(greaterThan))))
+                .groupBy(foo_cat)
+                .order(by(attr(foo_cat), ASC))
+                .build();
+    }
+
+    static Query joinQuery(int lessThan)
+    {
+        return select(attr(foo_str), attr(bar_str))
+                .from(foo)
+                .join(type(bar).on(pred(foo_int, eq(), bar_int)))
+                .where(foo_int, lt(), value(lessThan))
+                .order(by(attr(foo_int), DESC))
+                .build();
+    }
+
+    static Query equiJoinQuery()
+    {
+        return select(attr(foo_str), attr(bar_str))
+                .from(foo)
+                .join(type(bar).on(pred(foo_int, eq(), bar_int)))
+                .build();
+    }
+
+    static QueryBuilder orderedQuery()
+    {
+        return select(attr(foo_str), attr(foo_int))
+                .from(foo)
+                .order(by(attr(foo_cat), ASC), by(attr(foo_int), DESC));
+    }
+}
@@ -0,0 +1,78 @@
+package querybench;
+
+import org.openjdk.jmh.annotations.*;
+import query.ConnectionPool;
+import query.PoolConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ConnectionBenchmark
+{
+    private static final String URL = "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1";
+
+    private ConnectionPool pool;
+
+    @Setup
+    public void setUp()
+    {
+        pool = ConnectionPool.forUrl(URL, "sa", "", PoolConfig.defaults());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        pool.close();
+    }
+
+    @Benchmark
+    public int driver_manager() throws SQLException
+    {
+        try (Connection c = DriverManager.getConnection(URL, "sa", "")) {
+            return selectOne(c);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int driver_manager_contended() throws SQLException
+    {
+        return driver_manager();
+    }
+
+    @Benchmark
+    public int pooled() throws SQLException
+    {
+        try (Connection c = pool.getConnection()) {
+            return selectOne(c);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int pooled_contended() throws SQLException
+    {
+        return pooled();
+    }
+
+    private static int selectOne(Connection c) throws SQLException
+    {
+        try (
+                Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery("select 1")
+        ) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package querybench;
+
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+import query.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class H2EndToEndBenchmark
+{
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private ConnectionPool pool;
+    private H2Repo repo;
+    private Entity[] foos;
+
+    // H2 hands back the previous result when a prepared statement is re-run
+    // with unchanged parameters, so every call flips the literal
+    private int call;
+
+    @Setup
+    public void setUp()
+    {
+        pool = ConnectionPool.forUrl(
+                "jdbc:h2:mem:e2e;DB_CLOSE_DELAY=-1", "sa", "",
+                PoolConfig.defaults());
+        repo = new H2Repo(pool);
+        foos = BenchData.foos(rows);
+        repo.init(BenchData.foo, BenchData.bar);
+        repo.addEntities(foos);
+        repo.addEntities(BenchData.bars(rows / 10));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        pool.close();
+    }
+
+    @State(Scope.Thread)
+    public static class EmptyTable
+    {
+        ConnectionPool pool;
+        H2Repo repo;
+
+        @Setup
+        public void setUp()
+        {
+            pool = ConnectionPool.forUrl(
+                    "jdbc:h2:mem:e2e_insert;DB_CLOSE_DELAY=-1", "sa", "",
+                    PoolConfig.defaults());
+            repo = new H2Repo(pool);
+        }
+
+        @Setup(Level.Invocation)
+        public void recreateTable()
+        {
+            repo.init(BenchData.foo);
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            pool.close();
+        }
+    }
+
+    @Benchmark
+    public List<List<Object>> select_where()
+    {
+        return repo.select(BenchData.simpleQuery(100 + flip())).get();
+    }
+
+    @Benchmark
+    public List<List<Object>> select_join()
+    {
+        return repo.select(BenchData.joinQuery(1000 + flip())).get();
+    }
+
+    @Benchmark
+    public List<List<Object>> aggregate_group_by()
+    {
+        return repo.select(BenchData.groupByQuery(10 + flip())).get();
+    }
+
+    @Benchmark
+    public ColumnarResult aggregate_group_by_columnar()
+    {
+        return repo.selectColumnar(BenchData.groupByQuery(10 + flip()))
+                .get();
+    }
+
+    @Benchmark
+    public void insert(EmptyTable table)
+    {
+        table.repo.addEntities(foos);
+    }
+
+    private int flip()
+    {
+        return call++ & 1;
+    }
+}
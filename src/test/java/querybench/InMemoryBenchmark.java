@@ -0,0 +1,101 @@
+package querybench;
+
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+import query.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class InMemoryBenchmark
+{
+    @Param({"10000", "100000"})
+    public int rows;
+
+    // same rows; bars in key order in one, shuffled in the other, so the
+    // join merges the first and hashes the second
+    private InMemoryRepo sorted;
+    private InMemoryRepo shuffled;
+    private ForkJoinPool singleThread;
+    private InMemoryRepo sequential;
+
+    @Setup
+    public void setUp()
+    {
+        Entity[] foos = BenchData.foos(rows);
+        Entity[] bars = BenchData.bars(rows / 10);
+
+        sorted = new InMemoryRepo();
+        sorted.init(BenchData.foo, BenchData.bar);
+        sorted.addEntities(foos);
+        sorted.addEntities(bars);
+
+        java.util.List<Entity> mixed = Arrays.asList(bars.clone());
+        Collections.shuffle(mixed, new java.util.Random(42));
+        shuffled = new InMemoryRepo();
+        shuffled.init(BenchData.foo, BenchData.bar);
+        shuffled.addEntities(foos);
+        shuffled.addEntities(mixed.toArray(Entity[]::new));
+
+        singleThread = new ForkJoinPool(1);
+        sequential = new InMemoryRepo(QueryListener.NONE, singleThread);
+        sequential.init(BenchData.foo);
+        sequential.addEntities(foos);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        singleThread.shutdown();
+    }
+
+    @Benchmark
+    public List<List<Object>> select_where()
+    {
+        return sorted.select(BenchData.simpleQuery(100)).get();
+    }
+
+    @Benchmark
+    public List<List<Object>> order_by()
+    {
+        return sorted.select(BenchData.orderedQuery().build()).get();
+    }
+
+    @Benchmark
+    public List<List<Object>> order_by_limit()
+    {
+        return sorted.select(BenchData.orderedQuery().limit(10).build()).get();
+    }
+
+    @Benchmark
+    public List<List<Object>> join_sorted()
+    {
+        return sorted.select(BenchData.equiJoinQuery()).get();
+    }
+
+    @Benchmark
+    public List<List<Object>> join_shuffled()
+    {
+        return shuffled.select(BenchData.equiJoinQuery()).get();
+    }
+
+    @Benchmark
+    public List<List<Object>> aggregate_group_by()
+    {
+        return sorted.select(BenchData.groupByQuery(10)).get();
+    }
+
+    @Benchmark
+    public List<List<Object>> aggregate_group_by_single_thread()
+    {
+        return sequential.select(BenchData.groupByQuery(10)).get();
+    }
+}
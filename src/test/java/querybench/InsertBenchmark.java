@@ -0,0 +1,68 @@
+package querybench;
+
+import org.openjdk.jmh.annotations.*;
+import query.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static query.AttrType.Int;
+import static query.AttrType.Str;
+import static query.Entities.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class InsertBenchmark
+{
+    private static final int ROWS = 10_000;
+
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+
+    private final Attr foo_str = attr(Str, "foo_str");
+    private final Attr foo_int = attr(Int, "foo_int");
+    private final EntityType foo = newEntityType("foo", foo_str, foo_int);
+
+    private ConnectionPool pool;
+    private H2Repo repo;
+    private Entity[] entities;
+
+    @Setup
+    public void setUp()
+    {
+        pool = ConnectionPool.forUrl(
+                "jdbc:h2:mem:insert;DB_CLOSE_DELAY=-1", "sa", "",
+                PoolConfig.defaults());
+        repo = new H2Repo(
+                pool,
+                new QueryCache(256, 64),
+                H2Config.defaults().withBatchSize(batchSize));
+        entities = new Entity[ROWS];
+        for (int i = 0; i < ROWS; i++)
+            entities[i] = newEntity(foo, "foo_" + i,
+                    strValue(foo_str, "str_" + (i % 100)),
+                    intValue(foo_int, i));
+    }
+
+    @Setup(Level.Invocation)
+    public void recreateTable()
+    {
+        repo.init(foo);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        pool.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void add_entities()
+    {
+        repo.addEntities(entities);
+    }
+}
@@ -0,0 +1,95 @@
+package querybench;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.vavr.collection.List;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import query.H2Repo;
+import query.MongoRepo;
+import query.Query;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class QueryBuildingBenchmark
+{
+    private final H2Repo h2 = new H2Repo();
+    private final Query groupBy = BenchData.groupByQuery(10);
+    private final Query join = BenchData.joinQuery(1000);
+
+    private MongoClient mongoClient;
+    private MongoRepo mongo;
+
+    @Setup
+    public void setUp()
+    {
+        // the client connects lazily: generating pipelines needs no server
+        mongoClient = MongoClients.create();
+        mongo = new MongoRepo(mongoClient.getDatabase("bench"));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        mongoClient.close();
+    }
+
+    @Benchmark
+    public Query build_simple()
+    {
+        return BenchData.simpleQuery(42);
+    }
+
+    @Benchmark
+    public Query build_group_by()
+    {
+        return BenchData.groupByQuery(10);
+    }
+
+    @Benchmark
+    public Query build_join()
+    {
+        return BenchData.joinQuery(1000);
+    }
+
+    @Benchmark
+    public String render_sql_group_by()
+    {
+        return h2.toSqlQuery(groupBy);
+    }
+
+    @Benchmark
+    public String render_sql_join()
+    {
+        return h2.toSqlQuery(join);
+    }
+
+    @Benchmark
+    public void render_pipeline_group_by(Blackhole bh)
+    {
+        render(mongo.pipeline(groupBy), bh);
+    }
+
+    @Benchmark
+    public void render_pipeline_join(Blackhole bh)
+    {
+        render(mongo.pipeline(join), bh);
+    }
+
+    private static void render(List<Bson> pipeline, Blackhole bh)
+    {
+        for (Bson stage : pipeline)
+            bh.consume(stage.toBsonDocument(
+                    BsonDocument.class,
+                    MongoClientSettings.getDefaultCodecRegistry()));
+    }
+}
@@ -0,0 +1,221 @@
+package querytest;
+
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import org.junit.After;
+import org.junit.Test;
+import query.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static query.AttrType.Int;
+import static query.AttrType.Str;
+import static query.Entities.*;
+import static query.Queries.*;
+
+public class AsyncRepositoryTest
+{
+    private final Attr foo_str = attr(Str, "foo_str");
+    private final Attr foo_int = attr(Int, "foo_int");
+    private final EntityType foo = newEntityType("foo", foo_str, foo_int);
+    private final Query q = select(attr(foo_str)).from(foo).build();
+
+    private final BlockingRepo blocking = new BlockingRepo();
+    private final AsyncRepository async = new AsyncRepository(blocking, 2);
+
+    @After
+    public void tearDown()
+    {
+        blocking.release.countDown();
+        async.close();
+    }
+
+    @Test
+    public void selects_asynchronously() throws Exception
+    {
+        try (AsyncRepository h2 = new AsyncRepository(new H2Repo(), 4)) {
+            h2.init(foo).get();
+            h2.addEntities(
+                    newEntity(foo, "foo_1",
+                            strValue(foo_str, "str_1"),
+                            intValue(foo_int, 42)),
+                    newEntity(foo, "foo_2",
+                            strValue(foo_str, "str_2"),
+                            intValue(foo_int, 43))).get();
+
+            CompletableFuture<List<List<Object>>> first = h2.select(
+                    select(attr(foo_int)).from(foo)
+                            .where(foo_str, eq(), value("str_1")).build());
+            CompletableFuture<List<List<Object>>> second = h2.select(
+                    select(attr(foo_int)).from(foo)
+                            .where(foo_str, eq(), value("str_2")).build());
+
+            assertThat(first.get(5, TimeUnit.SECONDS), contains(contains(42)));
+            assertThat(second.get(5, TimeUnit.SECONDS), contains(contains(43)));
+        }
+    }
+
+    @Test
+    public void limits_concurrent_calls() throws Exception
+    {
+        CompletableFuture<?> first = async.select(q);
+        CompletableFuture<?> second = async.select(q);
+        CompletableFuture<?> third = async.select(q);
+        assertTrue(blocking.started.await(5, TimeUnit.SECONDS));
+
+        assertThat(async.queued(), is(1));
+        assertThat(blocking.calls.get(), is(2));
+
+        blocking.release.countDown();
+        CompletableFuture.allOf(first, second, third).get(5, TimeUnit.SECONDS);
+        assertThat(blocking.calls.get(), is(3));
+        assertThat(blocking.maxRunning.get(), is(2));
+    }
+
+    @Test
+    public void cancelling_queued_call_skips_it() throws Exception
+    {
+        CompletableFuture<?> first = async.select(q);
+        CompletableFuture<?> second = async.select(q);
+        CompletableFuture<?> third = async.select(q);
+        assertTrue(blocking.started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(third.cancel(true));
+        assertThat(async.queued(), is(0));
+
+        blocking.release.countDown();
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+        assertThat(blocking.calls.get(), is(2));
+    }
+
+    @Test
+    public void cancelling_running_call_interrupts_it() throws Exception
+    {
+        CompletableFuture<?> first = async.select(q);
+        CompletableFuture<?> second = async.select(q);
+        assertTrue(blocking.started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(first.cancel(true));
+        assertTrue(blocking.interrupted.await(5, TimeUnit.SECONDS));
+
+        blocking.release.countDown();
+        second.get(5, TimeUnit.SECONDS);
+        try {
+            first.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test
+    public void cancelling_running_select_cancels_h2_statement() throws Exception
+    {
+        Attr a_int = attr(Int, "a_int");
+        Attr b_int = attr(Int, "b_int");
+        Attr c_int = attr(Int, "c_int");
+        EntityType a = newEntityType("a", a_int);
+        EntityType b = newEntityType("b", b_int);
+        EntityType c = newEntityType("c", c_int);
+        BlockingQueue<QueryTrace> traces = new LinkedBlockingQueue<>();
+        H2Repo repo = new H2Repo(
+                ConnectionPool.forUrl(
+                        "jdbc:h2:mem:cancel;DB_CLOSE_DELAY=-1", "sa", "",
+                        PoolConfig.defaults()),
+                new QueryCache(16, 16),
+                H2Config.defaults().withListener(traces::add));
+        repo.init(a, b, c);
+        for (EntityType type : List.of(a, b, c))
+            repo.addEntities(List.range(0, 1000)
+                    .map(i -> newEntity(type, type.name() + i,
+                            intValue(type.attrs().head(), i)))
+                    .toJavaArray(Entity[]::new));
+
+        // a nested-loop join over 10^9 row triples, cut short by cancel
+        java.util.function.IntFunction<Query> crossJoin = max ->
+                select(count(attr(a_int)))
+                        .from(a)
+                        .join(JoinBuilder.type(b).on(pred(a_int, gt(), b_int)))
+                        .join(JoinBuilder.type(c).on(pred(b_int, gt(), c_int)))
+                        .where(a_int, lt(), value(max))
+                        .build();
+
+        try (AsyncRepository h2 = new AsyncRepository(repo, 1)) {
+            CompletableFuture<?> running = h2.select(crossJoin.apply(1000));
+            Thread.sleep(500);
+            assertTrue(running.cancel(true));
+
+            QueryTrace cancelled = traces.poll(10, TimeUnit.SECONDS);
+            assertTrue(cancelled != null && cancelled.failure().isDefined());
+
+            long hits = repo.queryCache().statementStats().hits();
+            assertThat(h2.select(crossJoin.apply(0)).get(5, TimeUnit.SECONDS),
+                    contains(contains(0)));
+            assertThat(repo.queryCache().statementStats().hits(), is(hits + 1));
+        }
+    }
+
+    @Test
+    public void fails_with_select_error() throws Exception
+    {
+        try (AsyncRepository h2 = new AsyncRepository(new H2Repo(), 1)) {
+            h2.select(select(attr(foo_str))
+                    .from(newEntityType("missing", foo_str))
+                    .build()).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(SQLException.class));
+        }
+    }
+
+    private static class BlockingRepo
+            implements Repository
+    {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        @Override
+        public void init(EntityType... types)
+        {
+        }
+
+        @Override
+        public void addEntities(Entity... es)
+        {
+        }
+
+        @Override
+        public Try<List<List<Object>>> select(Query q)
+        {
+            calls.incrementAndGet();
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            started.countDown();
+            try {
+                release.await();
+                return Try.success(List.empty());
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                return Try.failure(e);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+}
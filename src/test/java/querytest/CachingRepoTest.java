@@ -0,0 +1,112 @@
+package querytest;
+
+import io.vavr.collection.List;
+import org.junit.Before;
+import org.junit.Test;
+import query.*;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static query.AttrType.Int;
+import static query.AttrType.Str;
+import static query.Entities.*;
+import static query.Queries.*;
+
+public class CachingRepoTest
+{
+    private final Attr foo_str = attr(Str, "foo_str");
+    private final Attr foo_int = attr(Int, "foo_int");
+    private final EntityType foo = newEntityType("foo", foo_str, foo_int);
+    private final Attr bar_int = attr(Int, "bar_int");
+    private final EntityType bar = newEntityType("bar", bar_int);
+
+    private final Query foos = select(attr(foo_int)).from(foo).build();
+    private final Query bars = select(attr(bar_int)).from(bar).build();
+
+    private final CachingRepo repo =
+            new CachingRepo(new InMemoryRepo(), 2, Duration.ofMinutes(1));
+
+    @Before
+    public void setUp()
+    {
+        repo.init(foo, bar);
+        repo.addEntities(
+                newEntity(foo, "foo_1",
+                        strValue(foo_str, "str_1"),
+                        intValue(foo_int, 42)),
+                newEntity(bar, "bar_1", intValue(bar_int, 7)));
+    }
+
+    @Test
+    public void serves_equal_queries_from_cache()
+    {
+        repo.select(foos).get();
+        assertThat(
+                repo.select(select(attr(foo_int)).from(foo).build()).get(),
+                contains(contains(42)));
+
+        assertThat(repo.stats(), is(new CacheStats(1, 1, 0)));
+    }
+
+    @Test
+    public void invalidates_entries_of_written_types()
+    {
+        repo.select(foos).get();
+        repo.select(bars).get();
+
+        repo.addEntities(newEntity(foo, "foo_2",
+                strValue(foo_str, "str_2"),
+                intValue(foo_int, 43)));
+
+        assertThat(repo.size(), is(1));
+        assertThat(repo.select(foos).get(), contains(contains(42), contains(43)));
+        assertThat(repo.select(bars).get(), contains(contains(7)));
+        assertThat(repo.stats(), is(new CacheStats(1, 3, 1)));
+    }
+
+    @Test
+    public void evicts_least_recently_used()
+    {
+        Query strs = select(attr(foo_str)).from(foo).build();
+        repo.select(foos).get();
+        repo.select(bars).get();
+        repo.select(foos).get();
+        repo.select(strs).get();
+
+        assertThat(repo.size(), is(2));
+        repo.select(foos).get();
+        assertThat(repo.stats(), is(new CacheStats(2, 3, 1)));
+    }
+
+    @Test
+    public void select_all_and_streams_go_through_the_cache()
+    {
+        repo.select(foos).get();
+
+        assertThat(repo.selectAll(List.of(foos, bars)).get(),
+                contains(contains(contains(42)), contains(contains(7))));
+        assertThat(repo.stats(), is(new CacheStats(1, 2, 0)));
+
+        assertThat(repo.selectStream(bars).get().toList(),
+                contains(contains(7)));
+        assertThat(repo.selectColumnar(foos).get().toRows(),
+                contains(contains(42)));
+        assertThat(repo.stats(), is(new CacheStats(3, 2, 0)));
+    }
+
+    @Test
+    public void expires_entries_after_ttl()
+    {
+        CachingRepo expiring =
+                new CachingRepo(new InMemoryRepo(), 2, Duration.ZERO);
+        expiring.init(foo);
+
+        expiring.select(foos).get();
+        expiring.select(foos).get();
+
+        assertThat(expiring.stats(), is(new CacheStats(0, 2, 1)));
+    }
+}
@@ -0,0 +1,73 @@
+package querytest;
+
+import org.junit.After;
+import org.junit.Test;
+import query.ConnectionPool;
+import query.PoolConfig;
+import query.PoolMetrics;
+
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionPoolTest
+{
+    private final ConnectionPool pool = ConnectionPool.forUrl(
+            "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1", "sa", "",
+            PoolConfig.defaults()
+                    .withMaxSize(2)
+                    .withAcquireTimeout(Duration.ofMillis(50)));
+
+    @After
+    public void tearDown()
+    {
+        pool.close();
+    }
+
+    @Test
+    public void reuses_returned_connections() throws Exception
+    {
+        Connection first = pool.getConnection();
+        Connection physical = first.unwrap(Connection.class);
+        assertThat(pool.metrics(), is(new PoolMetrics(1, 0, 0)));
+
+        first.close();
+        assertTrue(first.isClosed());
+        assertThat(pool.metrics(), is(new PoolMetrics(0, 1, 0)));
+
+        try (Connection second = pool.getConnection()) {
+            assertThat(second.unwrap(Connection.class), is(physical));
+        }
+    }
+
+    @Test(expected = SQLTimeoutException.class)
+    public void times_out_when_exhausted() throws Exception
+    {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            pool.getConnection();
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void evicts_idle_connections() throws Exception
+    {
+        ConnectionPool eager = ConnectionPool.forUrl(
+                "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1", "sa", "",
+                PoolConfig.defaults().withIdleTimeout(Duration.ZERO));
+
+        eager.getConnection().close();
+        eager.evictIdle();
+
+        assertThat(eager.metrics(), is(new PoolMetrics(0, 0, 0)));
+        eager.close();
+    }
+}
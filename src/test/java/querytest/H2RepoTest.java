@@ -0,0 +1,292 @@
+package querytest;
+
+import io.vavr.collection.List;
+import org.junit.Before;
+import org.junit.Test;
+import query.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static query.AttrType.Int;
+import static query.AttrType.Str;
+import static query.Entities.*;
+import static query.Queries.*;
+
+public class H2RepoTest
+{
+    private final H2Repo repo = new H2Repo();
+
+    private final Attr foo_str = attr(Str, "foo_str");
+    private final Attr foo_int = attr(Int, "foo_int");
+    private final EntityType foo = newEntityType("foo", foo_str, foo_int);
+
+    @Before
+    public void setUp()
+    {
+        fill(repo);
+    }
+
+    private void fill(Repository r)
+    {
+        r.init(foo);
+        r.addEntities(
+                newEntity(foo, "foo_1",
+                        strValue(foo_str, "str_1"),
+                        intValue(foo_int, 42)),
+                newEntity(foo, "foo_2",
+                        strValue(foo_str, "str_2"),
+                        intValue(foo_int, 43)));
+    }
+
+    private static ConnectionPool pool(String db)
+    {
+        return ConnectionPool.forUrl(
+                "jdbc:h2:mem:" + db + ";DB_CLOSE_DELAY=-1", "sa", "",
+                PoolConfig.defaults());
+    }
+
+    private static H2Repo h2(ConnectionPool pool, H2Config config)
+    {
+        return new H2Repo(pool, new QueryCache(16, 16), config);
+    }
+
+    @Test
+    public void reuses_sql_for_same_shaped_queries()
+    {
+        assertThat(
+                repo.select(select(attr(foo_int))
+                        .from(foo)
+                        .where(foo_str, eq(), value("str_1"))
+                        .build()).get(),
+                contains(contains(42)));
+        assertThat(
+                repo.select(select(attr(foo_int))
+                        .from(foo)
+                        .where(foo_str, eq(), value("str_2"))
+                        .build()).get(),
+                contains(contains(43)));
+
+        assertThat(repo.queryCache().sqlStats(),
+                is(new CacheStats(1, 1, 0)));
+        assertThat(repo.queryCache().statementStats(),
+                is(new CacheStats(1, 1, 0)));
+    }
+
+    @Test
+    public void invalidation_leaves_open_streams_readable()
+    {
+        Query byInt = select(attr(foo_int))
+                .from(foo)
+                .order(by(attr(foo_int), OrderByMode.ASC))
+                .build();
+        try (Stream<List<Object>> rows = repo.selectStream(byInt).get()) {
+            Iterator<List<Object>> it = rows.iterator();
+            assertThat(it.next(), contains(42));
+
+            repo.queryCache().invalidateStatements();
+            assertThat(repo.select(byInt).get(),
+                    contains(contains(42), contains(43)));
+
+            assertThat(it.next(), contains(43));
+        }
+    }
+
+    @Test
+    public void binds_literals_by_attribute_type()
+    {
+        assertThat(
+                repo.select(select(attr(foo_str))
+                        .from(foo)
+                        .where(foo_str, like(), value("str_%"))
+                        .and(foo_int, gt(), value("42"))
+                        .build()).get(),
+                contains(contains("str_2")));
+    }
+
+    @Test
+    public void keeps_having_declared_before_group_by()
+    {
+        assertThat(
+                repo.select(select(attr(foo_str), sum(attr(foo_int)))
+                        .from(foo)
+                        .having(foo_int, gt(), value(42))
+                        .groupBy(foo_str)
+                        .build()).get(),
+                contains(contains("str_2", 43)));
+    }
+
+    @Test
+    public void inserts_mixed_layouts_in_batches()
+    {
+        H2Repo batched = h2(pool("batch"),
+                H2Config.defaults().withBatchSize(2));
+        batched.init(foo);
+        batched.addEntities(
+                newEntity(foo, "foo_1", intValue(foo_int, 1)),
+                newEntity(foo, "foo_2",
+                        strValue(foo_str, "str_2"),
+                        intValue(foo_int, 2)),
+                newEntity(foo, "foo_3", intValue(foo_int, 3)),
+                newEntity(foo, "foo_4", intValue(foo_int, 4)),
+                newEntity(foo, "foo_5",
+                        strValue(foo_str, "str_5"),
+                        intValue(foo_int, 5)));
+
+        assertThat(
+                batched.select(select(attr(foo_str), sum(attr(foo_int)))
+                        .from(foo)
+                        .groupBy(foo_str)
+                        .order(by(attr(foo_str), OrderByMode.ASC))
+                        .build()).get(),
+                contains(
+                        contains(null, 8),
+                        contains("str_2", 2),
+                        contains("str_5", 5)));
+    }
+
+    @Test
+    public void rolls_back_every_batch_when_one_fails()
+    {
+        H2Repo batched = h2(pool("atomic"),
+                H2Config.defaults().withBatchSize(1));
+        batched.init(foo);
+        batched.addEntities(
+                newEntity(foo, "foo_1", intValue(foo_int, 1)),
+                newEntity(foo, "foo_2", intValue(foo_int, 2)),
+                newEntity(foo, "foo_1", intValue(foo_int, 3)));
+
+        assertThat(
+                batched.select(select(attr(foo_int)).from(foo).build()).get(),
+                emptyIterable());
+    }
+
+    @Test
+    public void reports_query_phases_to_listener()
+    {
+        QueryMetrics metrics = new QueryMetrics(Duration.ZERO);
+        H2Repo traced = h2(pool("phases"),
+                H2Config.defaults().withListener(metrics));
+        fill(traced);
+
+        traced.select(select(attr(foo_str), attr(foo_int))
+                .from(foo)
+                .build()).get();
+
+        assertThat(metrics.queries(), is(1L));
+        assertThat(metrics.rows(), is(2L));
+        assertThat(metrics.bytes(), is(2L * (5 + 4)));
+        assertThat(metrics.slowQueries(), is(1L));
+        for (QueryPhase phase : QueryPhase.values())
+            assertThat(metrics.latency(phase).count(), is(1L));
+        assertThat(metrics.latency().percentileNanos(99), greaterThan(0L));
+    }
+
+    @Test
+    public void merges_same_shaped_queries_into_one_statement()
+    {
+        QueryMetrics metrics = new QueryMetrics(Duration.ZERO);
+        H2Repo traced = h2(pool("merged"),
+                H2Config.defaults().withListener(metrics));
+        fill(traced);
+
+        assertThat(
+                traced.selectAll(List.of("str_2", "str_0", "str_1")
+                        .map(s -> select(attr(foo_int))
+                                .from(foo)
+                                .where(foo_str, eq(), value(s))
+                                .build())).get(),
+                contains(contains(contains(43)), emptyIterable(),
+                        contains(contains(42))));
+        assertThat(metrics.queries(), is(1L));
+        assertThat(metrics.rows(), is(2L));
+    }
+
+    @Test
+    public void keeps_each_merged_query_in_its_own_order()
+    {
+        repo.addEntities(
+                newEntity(foo, "foo_3",
+                        strValue(foo_str, "str_3"),
+                        intValue(foo_int, 44)),
+                newEntity(foo, "foo_4",
+                        strValue(foo_str, "str_0"),
+                        intValue(foo_int, 45)));
+
+        assertThat(
+                repo.selectAll(List.of(41, 43)
+                        .map(i -> select(attr(foo_int))
+                                .from(foo)
+                                .where(foo_int, gt(), value(i))
+                                .order(by(attr(foo_str), OrderByMode.DESC))
+                                .limit(3)
+                                .build())).get(),
+                contains(
+                        contains(contains(44), contains(43), contains(42)),
+                        contains(contains(44), contains(45))));
+    }
+
+    @Test
+    public void advises_and_creates_indexes_from_workload() throws SQLException
+    {
+        WorkloadRecorder workload = new WorkloadRecorder();
+        ConnectionPool pool = pool("indexes");
+        H2Repo recorded = h2(pool, H2Config.defaults().withListener(workload));
+        recorded.init(foo);
+
+        for (int i = 0; i < 2; i++)
+            recorded.select(select(attr(foo_str))
+                    .from(foo)
+                    .where(foo_int, gt(), value(i))
+                    .and(foo_str, eq(), value("str_" + i))
+                    .build()).get();
+        recorded.select(select(attr(foo_str))
+                .from(foo)
+                .order(by(attr(foo_int), OrderByMode.ASC))
+                .build()).get();
+
+        assertThat(workload.queries(), is(3L));
+        assertThat(workload.uses(foo_int, WorkloadRecorder.Usage.WHERE), is(2L));
+        assertThat(workload.uses(foo_int, WorkloadRecorder.Usage.ORDER_BY), is(1L));
+
+        IndexSpec strInt = new IndexSpec(foo, List.of(foo_str, foo_int));
+        IndexSpec byInt = new IndexSpec(foo, List.of(foo_int));
+        assertThat(IndexAdvisor.advise(workload, 2), contains(strInt));
+        assertThat(IndexAdvisor.apply(workload, 1, recorded),
+                containsInAnyOrder(strInt, byInt));
+        assertThat(indexNames(pool), containsInAnyOrder(
+                strInt.name().toUpperCase(), byInt.name().toUpperCase()));
+
+        H2Repo indexed = new H2Repo(pool, new QueryCache(16, 16),
+                H2Config.defaults().withIndexes(List.of(byInt)));
+        indexed.init(foo);
+        assertThat(indexNames(pool), contains(byInt.name().toUpperCase()));
+    }
+
+    private static List<String> indexNames(ConnectionPool pool) throws SQLException
+    {
+        try (
+                Connection c = pool.getConnection();
+                Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery(
+                        "select distinct index_name from information_schema.indexes " +
+                                "where table_name = 'FOO' and not primary_key")
+        ) {
+            List<String> names = List.empty();
+            while (rs.next())
+                names = names.append(rs.getString(1));
+            return names;
+        }
+    }
+}
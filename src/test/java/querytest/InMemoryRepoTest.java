@@ -0,0 +1,221 @@
+package querytest;
+
+import io.vavr.collection.List;
+import org.junit.Before;
+import org.junit.Test;
+import query.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+import static query.AttrType.Int;
+import static query.AttrType.Str;
+import static query.Entities.*;
+import static query.PredicateBuilder.either;
+import static query.Queries.*;
+
+public class InMemoryRepoTest
+{
+    private final InMemoryRepo repo = new InMemoryRepo();
+
+    private final Attr foo_str = attr(Str, "foo_str");
+    private final Attr foo_int = attr(Int, "foo_int");
+    private final EntityType foo = newEntityType("foo", foo_str, foo_int);
+
+    @Before
+    public void setUp()
+    {
+        repo.init(foo);
+        Entity[] es = new Entity[3000];
+        for (int i = 0; i < es.length; i++)
+            es[i] = i % 1000 == 999
+                    ? newEntity(foo, "foo_" + i, strValue(foo_str, "null_" + i))
+                    : newEntity(foo, "foo_" + i,
+                            strValue(foo_str, "str_" + i),
+                            intValue(foo_int, i));
+        repo.addEntities(es);
+    }
+
+    @Test
+    public void filters_across_batches()
+    {
+        assertThat(
+                repo.select(select(attr(foo_str), attr(foo_int))
+                        .from(foo)
+                        .where(either(
+                                pred(foo_str, like(), value("str_2_")),
+                                pred(foo_int, eq(), nullVal())))
+                        .order(by(attr(foo_str), OrderByMode.ASC))
+                        .build()).get().map(row -> row.get(0)),
+                contains("null_1999", "null_2999", "null_999",
+                        "str_20", "str_21", "str_22", "str_23", "str_24",
+                        "str_25", "str_26", "str_27", "str_28", "str_29"));
+    }
+
+    @Test
+    public void keeps_top_rows_in_order()
+    {
+        assertThat(
+                repo.select(select(attr(foo_str))
+                        .from(foo)
+                        .order(by(attr(foo_int), OrderByMode.ASC))
+                        .limit(3)
+                        .offset(2)
+                        .build()).get().map(row -> row.get(0)),
+                contains("null_2999", "str_0", "str_1"));
+        assertThat(
+                repo.select(select(attr(foo_int))
+                        .from(foo)
+                        .where(foo_int, gt(), value(2990))
+                        .order(by(attr(foo_str), OrderByMode.DESC))
+                        .limit(2)
+                        .build()).get().map(row -> row.get(0)),
+                contains(2998, 2997));
+    }
+
+    @Test
+    public void sorts_all_rows_without_limit()
+    {
+        List<Object> ints = repo.select(select(attr(foo_int))
+                        .from(foo)
+                        .order(by(attr(foo_int), OrderByMode.DESC))
+                        .build()).get().map(row -> row.get(0));
+
+        assertThat(ints.size(), is(3000));
+        assertThat(ints.take(3), contains(2998, 2997, 2996));
+        assertThat(ints.takeRight(3), contains(nullValue(), nullValue(), nullValue()));
+        assertThat(ints.filter(i -> i != null),
+                is(ints.filter(i -> i != null)
+                        .sortBy(i -> -(Integer) i)));
+    }
+
+    @Test
+    public void counts_non_null_values()
+    {
+        assertThat(
+                repo.select(select(count(attr(foo_int)), max(attr(foo_int)))
+                        .from(foo)
+                        .where(foo_int, gt(), value("1500"))
+                        .build()).get(),
+                contains(contains(1497, 2998)));
+    }
+
+    @Test
+    public void rejects_duplicate_ids()
+    {
+        try {
+            repo.addEntities(
+                    newEntity(foo, "foo_new", intValue(foo_int, 1)),
+                    newEntity(foo, "foo_0", intValue(foo_int, 2)));
+            fail("duplicate id accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertThat(
+                repo.select(select(count(attr(foo_int)))
+                        .from(foo)
+                        .build()).get(),
+                contains(contains(2997)));
+    }
+
+    @Test
+    public void joins_sorted_and_unsorted_inputs_alike()
+    {
+        Attr bar_int = attr(Int, "bar_int");
+        Attr bar_str = attr(Str, "bar_str");
+        EntityType bar = newEntityType("bar", bar_int, bar_str);
+        Query query = select(attr(foo_int), attr(bar_str))
+                .from(foo)
+                .join(JoinBuilder.type(bar).on(pred(foo_int, eq(), bar_int)))
+                .where(foo_int, lt(), value(1000))
+                .build();
+        Entity[] bars = {
+                newEntity(bar, "bar_1", intValue(bar_int, 5), strValue(bar_str, "a")),
+                newEntity(bar, "bar_2", intValue(bar_int, 5), strValue(bar_str, "b")),
+                newEntity(bar, "bar_3", strValue(bar_str, "null")),
+                newEntity(bar, "bar_4", intValue(bar_int, 7), strValue(bar_str, "c")),
+                newEntity(bar, "bar_5", intValue(bar_int, 999), strValue(bar_str, "d")),
+                newEntity(bar, "bar_6", intValue(bar_int, 4000), strValue(bar_str, "e"))};
+
+        repo.init(bar);
+        repo.addEntities(bars);
+        List<List<Object>> merged = repo.select(query).get();
+
+        repo.init(bar);
+        repo.addEntities(bars[5], bars[3], bars[2], bars[1], bars[4], bars[0]);
+        List<List<Object>> hashed = repo.select(query).get();
+
+        assertThat(merged, contains(
+                contains(5, "a"), contains(5, "b"), contains(7, "c")));
+        assertThat(hashed, contains(
+                contains(5, "b"), contains(5, "a"), contains(7, "c")));
+    }
+
+    @Test
+    public void joins_on_str_across_dictionaries()
+    {
+        Attr bar_str = attr(Str, "bar_str");
+        EntityType bar = newEntityType("bar", bar_str);
+        repo.init(bar);
+        repo.addEntities(
+                newEntity(bar, "bar_1", strValue(bar_str, "unknown")),
+                newEntity(bar, "bar_2", strValue(bar_str, "str_7")),
+                newEntity(bar, "bar_3", strValue(bar_str, "str_3")));
+
+        assertThat(
+                repo.select(select(attr(foo_int))
+                        .from(foo)
+                        .join(JoinBuilder.type(bar).on(pred(foo_str, eq(), bar_str)))
+                        .build()).get(),
+                contains(contains(3), contains(7)));
+    }
+
+    @Test
+    public void aggregates_partitions_in_parallel()
+    {
+        Attr baz_cat = attr(Str, "baz_cat");
+        Attr baz_mod = attr(Int, "baz_mod");
+        Attr baz_int = attr(Int, "baz_int");
+        Attr baz_str = attr(Str, "baz_str");
+        EntityType baz = newEntityType("baz", baz_cat, baz_mod, baz_int, baz_str);
+        int rows = 100_000;
+        Entity[] es = new Entity[rows];
+        for (int i = 0; i < rows; i++)
+            es[i] = i % 1000 == 0
+                    ? newEntity(baz, "baz_" + i,
+                            strValue(baz_cat, "cat_" + i % 7),
+                            intValue(baz_mod, i % 3))
+                    : newEntity(baz, "baz_" + i,
+                            strValue(baz_cat, "cat_" + i % 7),
+                            intValue(baz_mod, i % 3),
+                            intValue(baz_int, i),
+                            strValue(baz_str, "s" + i));
+        repo.init(baz);
+        repo.addEntities(es);
+
+        List<List<Object>> expected = List.range(0, rows)
+                .filter(i -> i % 1000 != 0)
+                .groupBy(i -> List.of("cat_" + i % 7, i % 3))
+                .toList()
+                .sortBy(g -> g._1.get(0) + "/" + g._1.get(1))
+                .map(g -> g._1.<Object>map(k -> k).appendAll(List.of(
+                        g._2.size(),
+                        g._2.sum().intValue(),
+                        g._2.sum().intValue() / g._2.size(),
+                        g._2.min().get(),
+                        g._2.map(i -> "s" + i).max().get())));
+
+        assertThat(
+                repo.select(select(attr(baz_cat), attr(baz_mod),
+                        count(attr(baz_int)), sum(attr(baz_int)),
+                        avg(attr(baz_int)), min(attr(baz_int)),
+                        max(attr(baz_str)))
+                        .from(baz)
+                        .groupBy(baz_cat, baz_mod)
+                        .order(by(attr(baz_cat), OrderByMode.ASC),
+                                by(attr(baz_mod), OrderByMode.ASC))
+                        .build()).get(),
+                is(expected));
+    }
+}
@@ -0,0 +1,228 @@
+package querytest;
+
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import query.*;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static query.AttrType.Int;
+import static query.AttrType.Str;
+import static query.Entities.*;
+import static query.OrderByMode.ASC;
+import static query.OrderByMode.DESC;
+import static query.Queries.*;
+
+@RunWith(Parameterized.class)
+public class MaterializedRepoTest
+{
+    private final Repository base;
+    private final MaterializedRepo repo;
+
+    public MaterializedRepoTest(String ignored, Repository base) {
+        this.base = base;
+        this.repo = new MaterializedRepo(base);
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static java.util.List<Object[]> data() {
+        return Arrays.asList(
+                new Object[]{"H2", new H2Repo(ConnectionPool.forUrl(
+                        "jdbc:h2:mem:views;DB_CLOSE_DELAY=-1", "sa", "",
+                        PoolConfig.defaults()))},
+                new Object[]{"InMemory", new InMemoryRepo()}
+        );
+    }
+
+    private final Attr foo_str = attr(Str, "foo_str");
+    private final Attr foo_int = attr(Int, "foo_int");
+    private final EntityType foo = newEntityType("foo", foo_str, foo_int);
+
+    private final Query byStr = select(
+            attr(foo_str),
+            sum(attr(foo_int)),
+            count(attr(foo_int)),
+            min(attr(foo_int)),
+            max(attr(foo_int)),
+            avg(attr(foo_int)))
+            .from(foo)
+            .groupBy(foo_str)
+            .order(by(attr(foo_str), DESC))
+            .build();
+
+    @Before
+    public void setUp()
+    {
+        repo.init(foo);
+        repo.addEntities(
+                newEntity(foo, "foo_1",
+                        strValue(foo_str, "str_1"),
+                        intValue(foo_int, 42)),
+                newEntity(foo, "foo_2",
+                        strValue(foo_str, "str_2"),
+                        intValue(foo_int, 43)));
+    }
+
+    @Test
+    public void updates_aggregates_on_insert()
+    {
+        assertTrue(repo.register(byStr));
+        repo.addEntities(
+                newEntity(foo, "foo_3",
+                        strValue(foo_str, "str_2"),
+                        intValue(foo_int, 58)),
+                newEntity(foo, "foo_4", strValue(foo_str, "str_2")),
+                newEntity(foo, "foo_5", intValue(foo_int, 7)));
+
+        assertThat(repo.select(byStr).get(), contains(
+                contains("str_2", 101, 2, 43, 58, 50),
+                contains("str_1", 42, 1, 42, 42, 42),
+                contains(null, 7, 1, 7, 7, 7)));
+        assertThat(repo.select(byStr).get(), is(base.select(byStr).get()));
+    }
+
+    @Test
+    public void rebuilds_views_when_a_write_fails()
+    {
+        repo.register(byStr);
+
+        assertTrue(repo.tryAddEntities(
+                newEntity(foo, "foo_3",
+                        strValue(foo_str, "str_1"),
+                        intValue(foo_int, 1)),
+                newEntity(foo, "foo_1",
+                        strValue(foo_str, "str_1"),
+                        intValue(foo_int, 99))).isFailure());
+
+        assertThat(repo.select(byStr).get(), is(base.select(byStr).get()));
+    }
+
+    @Test
+    public void clears_views_on_init()
+    {
+        repo.register(byStr);
+        repo.init(foo);
+
+        assertThat(repo.select(byStr).get(), emptyIterable());
+    }
+
+    @Test
+    public void recomputes_filtered_queries()
+    {
+        Query filtered = select(attr(foo_str), count(attr(foo_int)))
+                .from(foo)
+                .where(foo_int, gt(), value(42))
+                .groupBy(foo_str)
+                .order(by(attr(foo_str), ASC))
+                .build();
+
+        assertFalse(repo.register(filtered));
+        assertThat(repo.select(filtered).get(), contains(contains("str_2", 1)));
+
+        repo.addEntities(newEntity(foo, "foo_3",
+                strValue(foo_str, "str_1"),
+                intValue(foo_int, 50)));
+        assertThat(repo.select(filtered).get(), contains(
+                contains("str_1", 1),
+                contains("str_2", 1)));
+    }
+
+    @Test
+    public void leaves_unregistered_queries_to_the_repository()
+    {
+        repo.register(byStr);
+        repo.unregister(byStr);
+        repo.addEntities(newEntity(foo, "foo_3",
+                strValue(foo_str, "str_1"),
+                intValue(foo_int, 1)));
+
+        assertThat(repo.select(byStr).get().map(row -> row.get(1)),
+                is(List.of(43, 43)));
+    }
+
+    @Test
+    public void answers_every_kind_of_read_from_the_view()
+    {
+        Query all = select(attr(foo_int)).from(foo).build();
+        repo.register(byStr);
+        base.addEntities(newEntity(foo, "foo_3",
+                strValue(foo_str, "str_1"),
+                intValue(foo_int, 1)));
+        List<List<Object>> view = List.of(
+                List.of("str_2", 43, 1, 43, 43, 43),
+                List.of("str_1", 42, 1, 42, 42, 42));
+
+        assertThat(repo.selectAll(List.of(byStr, all)).get(), is(List.of(
+                view,
+                List.of(List.of(42), List.of(43), List.of(1)))));
+        assertThat(List.ofAll(repo.selectStream(byStr).get().toList()),
+                is(view));
+        assertThat(repo.selectColumnar(byStr).get().toRows(), is(view));
+    }
+
+    @Test
+    public void rebuilds_views_after_concurrent_writes_are_applied()
+            throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        MaterializedRepo views = new MaterializedRepo(new Repository()
+        {
+            @Override
+            public void init(EntityType... types)
+            {
+                base.init(types);
+            }
+
+            @Override
+            public void addEntities(Entity... es)
+            {
+                tryAddEntities(es).get();
+            }
+
+            @Override
+            public Try<Void> tryAddEntities(Entity... es)
+            {
+                Try<Void> stored = base.tryAddEntities(es);
+                if (es[0].id().equals("foo_slow"))
+                    Try.run(release::await);
+                return stored;
+            }
+
+            @Override
+            public Try<List<List<Object>>> select(Query q)
+            {
+                return base.select(q);
+            }
+        });
+        views.register(byStr);
+
+        Thread slow = new Thread(() -> views.addEntities(
+                newEntity(foo, "foo_slow",
+                        strValue(foo_str, "str_1"),
+                        intValue(foo_int, 5))));
+        Thread failing = new Thread(() -> views.tryAddEntities(
+                newEntity(foo, "foo_1",
+                        strValue(foo_str, "str_1"),
+                        intValue(foo_int, 99))));
+        slow.start();
+        Thread.sleep(100);
+        failing.start();
+        Thread.sleep(200);
+        release.countDown();
+        slow.join();
+        failing.join();
+
+        assertThat(views.select(byStr).get(), is(base.select(byStr).get()));
+    }
+}
@@ -9,6 +9,7 @@ import org.bson.BsonDocument;
 import org.bson.BsonString;
 import org.bson.Document;
 import org.junit.Test;
+import query.*;
 
 import java.util.Arrays;
 
@@ -21,6 +22,8 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.comparesEqualTo;
 import static org.hamcrest.Matchers.contains;
+import static query.AttrType.Int;
+import static query.Entities.*;
 
 public class MongoTest
 {
@@ -137,4 +140,80 @@ public class MongoTest
             }
         }
     }
+
+    @Test
+    public void test_bulk_insert_reports_failed_chunks() {
+        try (MongoClient mongoClient = MongoClients.create()) {
+            MongoRepo repo = new MongoRepo(
+                    mongoClient.getDatabase("test"),
+                    MongoConfig.defaults().withBatchSize(2));
+            Attr baz_int = attr(Int, "baz_int");
+            EntityType baz = newEntityType("baz", baz_int);
+            repo.init(baz);
+
+            List<InsertChunk> chunks = repo.bulkInsert(
+                    newEntity(baz, "baz_1", intValue(baz_int, 1)),
+                    newEntity(baz, "baz_2", intValue(baz_int, 2)),
+                    newEntity(baz, "baz_1", intValue(baz_int, 3)),
+                    newEntity(baz, "baz_4", intValue(baz_int, 4)),
+                    newEntity(baz, "baz_5", intValue(baz_int, 5)));
+
+            assertThat(chunks.map(InsertChunk::offset), contains(0, 2, 4));
+            assertThat(chunks.map(InsertChunk::failedWrites),
+                    contains(0, 1, 0));
+            assertThat(mongoClient.getDatabase("test")
+                    .getCollection("baz").countDocuments(), is(4L));
+        }
+    }
+
+    @Test
+    public void test_select_all_prefilters_capped_facets() {
+        try (MongoClient mongoClient = MongoClients.create()) {
+            java.util.List<String> statements = new java.util.ArrayList<>();
+            MongoRepo repo = new MongoRepo(
+                    mongoClient.getDatabase("test"),
+                    MongoConfig.defaults()
+                            .withMaxFacets(2)
+                            .withListener(t -> statements.add(t.statement().get())));
+            Attr quux_int = attr(Int, "quux_int");
+            EntityType quux = newEntityType("quux", quux_int);
+            repo.init(quux);
+            repo.addEntities(
+                    newEntity(quux, "quux_1", intValue(quux_int, 1)),
+                    newEntity(quux, "quux_2", intValue(quux_int, 2)),
+                    newEntity(quux, "quux_3", intValue(quux_int, 3)));
+
+            assertThat(repo.selectAll(List.of(1, 2, 3)
+                            .map(i -> Queries.select(attr(quux_int))
+                                    .from(quux)
+                                    .where(quux_int, Queries.eq(), Queries.value(i))
+                                    .build())).get(),
+                    contains(
+                            contains(contains(1)),
+                            contains(contains(2)),
+                            contains(contains(3))));
+            assertThat(statements.size(), is(2));
+            assertThat(statements.get(0).indexOf("$match") <
+                    statements.get(0).indexOf("$facet"), is(true));
+        }
+    }
+
+    @Test
+    public void test_init_creates_configured_indexes() {
+        try (MongoClient mongoClient = MongoClients.create()) {
+            Attr qux_int = attr(Int, "qux_int");
+            Attr qux_str = attr(AttrType.Str, "qux_str");
+            EntityType qux = newEntityType("qux", qux_int, qux_str);
+            IndexSpec index = new IndexSpec(qux, List.of(qux_str, qux_int));
+            MongoRepo repo = new MongoRepo(
+                    mongoClient.getDatabase("test"),
+                    MongoConfig.defaults().withIndexes(List.of(index)));
+            repo.init(qux);
+
+            List<String> names = List.ofAll(mongoClient.getDatabase("test")
+                    .getCollection("qux").listIndexes())
+                    .map(d -> d.getString("name"));
+            assertThat(names.contains(index.name()), is(true));
+        }
+    }
 }
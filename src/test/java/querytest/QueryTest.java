@@ -14,6 +14,7 @@ import java.util.Arrays;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static query.AttrType.Int;
@@ -22,6 +23,7 @@ import static query.Entities.*;
 import static query.JoinBuilder.type;
 import static query.OrderByMode.ASC;
 import static query.OrderByMode.DESC;
+import static query.PredicateBuilder.allOf;
 import static query.PredicateBuilder.either;
 import static query.PredicateBuilder.not;
 import static query.Queries.*;
@@ -41,7 +43,8 @@ public class QueryTest
         return Arrays.asList(
                 new Object[]{"H2", new H2Repo()},
                 new Object[]{"MongoDB",
-                        new MongoRepo(mongoClient.getDatabase("test"))}
+                        new MongoRepo(mongoClient.getDatabase("test"))},
+                new Object[]{"InMemory", new InMemoryRepo()}
         );
     }
 
@@ -118,6 +121,95 @@ public class QueryTest
                 contains(contains("str_2", 43), contains("str_1", 42)));
     }
 
+    @Test
+    public void select_int_from_foo_order_by_limit_offset()
+    {
+        repo.addEntities(foo_3);
+
+        assertThat(
+                fetch(select(attr(foo_str), attr(foo_int))
+                              .from(foo)
+                              .order(by(attr(foo_int), DESC))
+                              .limit(1)
+                              .offset(1)),
+                contains(contains("str_2", 43)));
+    }
+
+    @Test
+    public void select_sum_group_by_order_by_limit()
+    {
+        repo.addEntities(foo_3);
+
+        assertThat(
+                fetch(select(attr(foo_str), sum(attr(foo_int)))
+                              .from(foo)
+                              .groupBy(foo_str)
+                              .order(by(attr(foo_str), DESC))
+                              .limit(1)),
+                contains(contains("str_2", 43 + 57)));
+    }
+
+    @Test
+    public void select_pages_after_cursor()
+    {
+        repo.addEntities(foo_3, newEntity(foo, "foo_4",
+                strValue(foo_str, "str_2"),
+                strValue(foo_cat, "cat_2")));
+
+        List<List<Object>> rows = List.empty();
+        PageCursor cursor = null;
+        for (int page = 0; page < 3; page++) {
+            QueryBuilder query = select(attr(foo_str), attr(foo_int))
+                    .from(foo)
+                    .order(by(attr(foo_str), ASC), by(attr(foo_int), DESC))
+                    .limit(2);
+            if (cursor != null)
+                query.after(cursor.token());
+            List<List<Object>> pageRows = fetch(query);
+            rows = rows.appendAll(pageRows);
+            if (pageRows.isEmpty())
+                break;
+            cursor = PageCursor.of(query.build(), pageRows.last());
+        }
+
+        assertThat(rows.map(row -> row.get(0)),
+                contains("str_1", "str_2", "str_2", "str_2"));
+        assertThat(rows.map(row -> row.get(1)).take(3),
+                contains(42, 57, 43));
+    }
+
+    @Test
+    public void select_all_splits_rows_per_query()
+    {
+        repo.addEntities(foo_3);
+
+        List<List<List<Object>>> results = repo.selectAll(List.of(
+                select(attr(foo_int)).from(foo)
+                        .where(foo_str, eq(), value("str_2"))
+                        .order(by(attr(foo_int), DESC))
+                        .build(),
+                select(attr(bar_int)).from(bar).build(),
+                select(attr(foo_int)).from(foo)
+                        .where(foo_str, eq(), value("str_1"))
+                        .order(by(attr(foo_int), DESC))
+                        .build(),
+                select(attr(foo_int)).from(foo)
+                        .where(foo_str, eq(), value("str_3"))
+                        .order(by(attr(foo_int), DESC))
+                        .build(),
+                select(attr(foo_str), count(attr(foo_int))).from(foo)
+                        .groupBy(foo_str)
+                        .order(by(attr(foo_str), ASC))
+                        .limit(1)
+                        .build())).get();
+
+        assertThat(results.get(0), contains(contains(57), contains(43)));
+        assertThat(results.get(1), contains(contains(44), contains(42)));
+        assertThat(results.get(2), contains(contains(42)));
+        assertThat(results.get(3), emptyIterable());
+        assertThat(results.get(4), contains(contains("str_1", 1)));
+    }
+
     @Test
     public void select_max_group_by()
     {
@@ -190,6 +282,53 @@ public class QueryTest
                          contains("str_2", 2)));
     }
 
+    @Test
+    public void select_many_aggregates_group_by_two_attrs()
+    {
+        repo.addEntities(foo_3, newEntity(foo, "foo_4",
+                strValue(foo_str, "str_2"),
+                strValue(foo_cat, "cat_2")));
+
+        assertThat(
+                fetch(select(attr(foo_str), attr(foo_cat),
+                        sum(attr(foo_int)),
+                        max(attr(foo_int)),
+                        count(attr(foo_int)))
+                        .from(foo)
+                        .groupBy(foo_str, foo_cat)
+                        .order(by(attr(foo_str), ASC),
+                                by(attr(foo_cat), ASC))),
+                contains(contains("str_1", "cat_1", 42, 42, 1),
+                        contains("str_2", "cat_2", 43 + 57, 57, 2)));
+    }
+
+    @Test
+    public void select_sum_group_by_having_aggregate()
+    {
+        repo.addEntities(foo_3);
+
+        assertThat(
+                fetch(select(attr(foo_str), sum(attr(foo_int)))
+                        .from(foo)
+                        .groupBy(foo_str)
+                        .having(foo_int, gt(), value(50))
+                        .order(by(attr(foo_str), ASC))),
+                contains(contains("str_2", 43 + 57)));
+    }
+
+    @Test
+    public void select_count_group_by_having_key()
+    {
+        repo.addEntities(foo_3);
+
+        assertThat(
+                fetch(select(attr(foo_str), count(attr(foo_int)))
+                        .from(foo)
+                        .groupBy(foo_str)
+                        .having(foo_str, eq(), value("str_2"))),
+                contains(contains("str_2", 2)));
+    }
+
     @Test
     public void select_from_foo_where_lt()
     {
@@ -235,6 +374,55 @@ public class QueryTest
                 contains(contains("str_1"), contains("str_2")));
     }
 
+    @Test
+    public void select_from_foo_where_not_all_of_or_chain()
+    {
+        repo.addEntities(foo_3);
+
+        QueryBuilder query =
+                select(attr(foo_str), attr(foo_int))
+                        .from(foo)
+                        .where(either(
+                                either(
+                                        pred(foo_int, eq(), value(42)),
+                                        pred(foo_int, eq(), value(57))),
+                                pred(foo_int, eq(), value(42))))
+                        .and(not(allOf(
+                                pred(foo_str, eq(), value("str_1")),
+                                not(pred(foo_int, lt(), nullVal())))))
+                        .order(by(attr(foo_int), ASC));
+
+        assertThat(
+                fetch(query),
+                contains(contains("str_2", 57)));
+    }
+
+    @Test
+    public void select_from_foo_where_not_less_than_itself()
+    {
+        QueryBuilder query =
+                select(attr(foo_str))
+                        .from(foo)
+                        .where(not(pred(foo_int, lt(), foo_int)))
+                        .order(by(attr(foo_str), ASC));
+
+        assertThat(
+                fetch(query),
+                contains(contains("str_1"), contains("str_2")));
+    }
+
+    @Test
+    public void select_from_foo_where_contradiction()
+    {
+        QueryBuilder query =
+                select(attr(foo_str))
+                        .from(foo)
+                        .where(foo_int, eq(), value(42))
+                        .and(foo_int, eq(), value(43));
+
+        assertThat(fetch(query), emptyIterable());
+    }
+
     @Test
     public void select_from_foo_join_bar_on_int()
     {
@@ -299,6 +487,76 @@ public class QueryTest
                 contains(contains("str_1", "str_3")));
     }
 
+    @Test
+    public void select_from_foo_join_bar_where_joined_attr()
+    {
+        repo.addEntities(foo_3);
+
+        QueryBuilder query =
+                select(attr(foo_int), attr(bar_str))
+                        .from(foo)
+                        .join(type(bar)
+                                .on(pred(foo_str, eq(), bar_str)))
+                        .where(bar_int, gt(), value(43))
+                        .and(foo_int, gt(), value(50))
+                        .order(by(attr(foo_int), ASC));
+
+        assertThat(
+                fetch(query),
+                contains(contains(57, "str_2")));
+    }
+
+    @Test
+    public void select_from_foo_join_bar_where_across_entities()
+    {
+        QueryBuilder query =
+                select(attr(foo_str))
+                        .from(foo)
+                        .join(type(bar)
+                                .on(pred(foo_cat, eq(), bar_cat)))
+                        .where(pred(foo_int, lt(), bar_int));
+
+        assertThat(
+                fetch(query),
+                contains(contains("str_1")));
+    }
+
+    @Test
+    public void select_stream_from_foo_order_by()
+    {
+        try (java.util.stream.Stream<List<Object>> rows = repo
+                .selectStream(select(attr(foo_str), attr(foo_int))
+                        .from(foo)
+                        .order(by(attr(foo_int), DESC))
+                        .build())
+                .get()) {
+            assertThat(
+                    List.ofAll(rows),
+                    contains(contains("str_2", 43), contains("str_1", 42)));
+        }
+    }
+
+    @Test
+    public void select_columnar_sum_group_by()
+    {
+        repo.addEntities(foo_3);
+
+        ColumnarResult result = repo.selectColumnar(
+                select(attr(foo_str), sum(attr(foo_int)))
+                        .from(foo)
+                        .groupBy(foo_str)
+                        .order(by(attr(foo_str), ASC))
+                        .build())
+                .get();
+
+        assertEquals(2, result.rowCount());
+        assertEquals("str_2", result.getString(1, 0));
+        assertEquals(43 + 57, result.ints(1)[1]);
+        assertThat(
+                result.toRows(),
+                contains(contains("str_1", 42), contains("str_2", 43 + 57)));
+    }
+
     private List<List<Object>> fetch(QueryBuilder query)
     {
         return repo.select(query.build()).get();
@@ -0,0 +1,242 @@
+package querytest;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import org.junit.Test;
+import query.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static query.AttrType.Int;
+import static query.AttrType.Str;
+import static query.Entities.*;
+import static query.JoinBuilder.type;
+import static query.Queries.*;
+
+public class RoutingRepoTest
+{
+    private final Attr foo_str = attr(Str, "foo_str");
+    private final Attr foo_int = attr(Int, "foo_int");
+    private final EntityType foo = newEntityType("foo", foo_str, foo_int);
+    private final Attr bar_str = attr(Str, "bar_str");
+    private final Attr bar_int = attr(Int, "bar_int");
+    private final EntityType bar = newEntityType("bar", bar_str, bar_int);
+
+    private long now;
+
+    private Query byInt(int i)
+    {
+        return select(attr(foo_str)).from(foo)
+                .where(foo_int, eq(), value(i))
+                .build();
+    }
+
+    @Test
+    public void routes_to_faster_backend()
+    {
+        StubRepo slow = new StubRepo(5_000_000, false);
+        StubRepo fast = new StubRepo(100_000, false);
+        RoutingRepo repo = new RoutingRepo(() -> now, slow, fast);
+
+        for (int i = 0; i < 10; i++)
+            repo.select(byInt(i)).get();
+
+        assertThat(slow.calls, is(3));
+        assertThat(fast.calls, is(7));
+        assertTrue(repo.latencyNanos(byInt(0), 0).get() >
+                repo.latencyNanos(byInt(0), 1).get());
+    }
+
+    @Test
+    public void probes_slower_backend_periodically()
+    {
+        StubRepo slow = new StubRepo(1_000_000, false);
+        StubRepo fast = new StubRepo(100_000, false);
+        RoutingRepo repo = new RoutingRepo(() -> now, slow, fast);
+
+        for (int i = 0; i < 32; i++)
+            repo.select(byInt(i)).get();
+
+        assertThat(slow.calls, is(4));
+        assertThat(fast.calls, is(28));
+    }
+
+    @Test
+    public void outvotes_a_noisy_first_sample()
+    {
+        StubRepo slow = new StubRepo(1_000_000, false);
+        StubRepo fast = new StubRepo(100_000, false);
+        RoutingRepo repo = new RoutingRepo(() -> now, slow, fast);
+
+        fast.spikeNanos = 2_000_000;
+        for (int i = 0; i < 20; i++)
+            repo.select(byInt(i)).get();
+
+        assertThat(slow.calls, is(3));
+        assertThat(fast.calls, is(17));
+    }
+
+    @Test
+    public void routes_batched_and_streamed_selects()
+    {
+        StubRepo slow = new StubRepo(5_000_000, false);
+        StubRepo fast = new StubRepo(100_000, false);
+        RoutingRepo repo = new RoutingRepo(() -> now, slow, fast);
+        for (int i = 0; i < 6; i++)
+            repo.select(byInt(i)).get();
+
+        assertThat(repo.selectAll(List.of(byInt(1), byInt(2))).get(),
+                contains(contains(contains("stub")), contains(contains("stub"))));
+        assertThat(repo.selectStream(byInt(3)).get().toList(),
+                contains(contains("stub")));
+        assertThat(repo.selectColumnar(byInt(4)).get().toRows(),
+                contains(contains("stub")));
+
+        assertThat(slow.calls, is(3));
+        assertThat(fast.calls, is(7));
+    }
+
+    @Test
+    public void skips_backends_that_missed_a_write_until_init()
+    {
+        StubRepo healthy = new StubRepo(100_000, false);
+        StubRepo failing = new StubRepo(100_000, false);
+        failing.failWrites = true;
+        RoutingRepo repo = new RoutingRepo(() -> now, healthy, failing);
+
+        assertTrue(repo.tryAddEntities(
+                newEntity(foo, "foo_1", intValue(foo_int, 1))).isFailure());
+        assertTrue(Try.run(() -> repo.addEntities(
+                newEntity(foo, "foo_2", intValue(foo_int, 2)))).isFailure());
+        for (int i = 0; i < 4; i++)
+            repo.select(byInt(i)).get();
+        assertThat(failing.calls, is(0));
+
+        repo.init(foo);
+        for (int i = 0; i < 4; i++)
+            repo.select(byInt(i)).get();
+        assertThat(failing.calls, is(3));
+    }
+
+    @Test
+    public void falls_back_on_unsupported_operation()
+    {
+        StubRepo unsupported = new StubRepo(0, true);
+        StubRepo working = new StubRepo(0, false);
+        RoutingRepo repo = new RoutingRepo(() -> now, unsupported, working);
+
+        assertThat(repo.select(byInt(1)).get(), contains(contains("stub")));
+        assertThat(repo.select(byInt(2)).get(), contains(contains("stub")));
+
+        assertThat(unsupported.calls, is(1));
+        assertThat(working.calls, is(2));
+        assertTrue(repo.latencyNanos(byInt(1), 0).isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mongo_translates_only_equi_joins()
+    {
+        try (MongoClient client = MongoClients.create()) {
+            MongoRepo mongo = new MongoRepo(client.getDatabase("test"));
+            Query ltJoin = select(attr(foo_int), attr(bar_int))
+                    .from(foo)
+                    .join(type(bar).on(pred(foo_int, lt(), bar_int)))
+                    .build();
+            Query eqJoin = select(attr(foo_int), attr(bar_int))
+                    .from(foo)
+                    .join(type(bar).on(pred(foo_int, eq(), bar_int)))
+                    .build();
+
+            assertTrue(mongo.supports(eqJoin));
+            assertFalse(mongo.supports(ltJoin));
+            mongo.pipeline(ltJoin);
+        }
+    }
+
+    @Test
+    public void sends_queries_only_to_capable_backends()
+    {
+        try (MongoClient client = MongoClients.create()) {
+            MongoRepo mongo = new MongoRepo(client.getDatabase("test"));
+            RoutingRepo repo = new RoutingRepo(mongo, new H2Repo());
+            repo.init(foo, bar);
+            repo.addEntities(
+                    newEntity(foo, "foo_1",
+                            strValue(foo_str, "str_1"),
+                            intValue(foo_int, 42)),
+                    newEntity(bar, "bar_1",
+                            strValue(bar_str, "str_1"),
+                            intValue(bar_int, 42)));
+
+            Query like = select(attr(foo_int)).from(foo)
+                    .where(foo_str, like(), value("str_%"))
+                    .build();
+            Query twoConditionJoin = select(attr(foo_int), attr(bar_int))
+                    .from(foo)
+                    .join(type(bar)
+                            .on(pred(foo_str, eq(), bar_str))
+                            .on(pred(foo_int, eq(), bar_int)))
+                    .build();
+
+            assertFalse(mongo.supports(like));
+            assertFalse(mongo.supports(twoConditionJoin));
+            assertTrue(mongo.supports(byInt(42)));
+
+            assertThat(repo.select(like).get(), contains(contains(42)));
+            assertThat(repo.select(twoConditionJoin).get(),
+                    contains(contains(42, 42)));
+            assertTrue(repo.latencyNanos(like, 0).isEmpty());
+            assertTrue(repo.latencyNanos(like, 1).isDefined());
+        }
+    }
+
+    /**
+     * Takes {@code costNanos} of the test's clock per query, plus a one-off
+     * {@code spikeNanos} on the next one.
+     */
+    private class StubRepo
+            implements Repository
+    {
+        private final long costNanos;
+        private final boolean unsupported;
+        long spikeNanos;
+        boolean failWrites;
+        int calls;
+
+        StubRepo(long costNanos, boolean unsupported)
+        {
+            this.costNanos = costNanos;
+            this.unsupported = unsupported;
+        }
+
+        @Override
+        public void init(EntityType... types)
+        {
+        }
+
+        @Override
+        public void addEntities(Entity... es)
+        {
+            if (failWrites)
+                throw new IllegalStateException("stub");
+        }
+
+        @Override
+        public Try<List<List<Object>>> select(Query q)
+        {
+            calls++;
+            return Try.of(() -> {
+                if (unsupported)
+                    throw new UnsupportedOperationException("stub");
+                now += costNanos + spikeNanos;
+                spikeNanos = 0;
+                return List.of(List.of("stub"));
+            });
+        }
+    }
+}